@@ -0,0 +1,61 @@
+package com.scopelang.bench;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import com.scopelang.*;
+import com.scopelang.metadata.FasmAnalyzer;
+import com.scopelang.metadata.MetadataIndex;
+import com.scopelang.project.CompileTask;
+
+// Reading the metadata of a `.scopelib`, from the text or from its `.scopeidx`
+@State(Scope.Benchmark)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalyzerBench {
+	@Param({ "functions", "strings" })
+	public String shape;
+
+	@Param({ "10", "100", "1000" })
+	public int size;
+
+	@Param({ "true", "false" })
+	public boolean indexed;
+
+	private Pipeline pipeline;
+	private FilePair compiled;
+
+	@Setup
+	public void setup() throws IOException {
+		pipeline = new Pipeline(Map.of("Bench.scope", Corpus.of(shape, size)), null);
+
+		var source = pipeline.source("Bench.scope");
+		new CompileTask(source, CompileTask.Mode.LIBRARY, pipeline.scheduler).run(pipeline.xml);
+		compiled = CompileTask.convertSourceToCompiled(source, CompileTask.Mode.LIBRARY);
+	}
+
+	@Setup(Level.Invocation)
+	public void removeIndex() {
+		if (!indexed) {
+			MetadataIndex.indexFileOf(compiled.toFile()).delete();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		pipeline.close();
+	}
+
+	@Benchmark
+	public Object analyze() {
+		// Not `FasmAnalyzer.of`, that would only hit its cache
+		return new FasmAnalyzer(compiled);
+	}
+}
@@ -0,0 +1,115 @@
+package com.scopelang.bench;
+
+import java.util.LinkedHashMap;
+
+// Generates valid Scope programs of a given size
+public final class Corpus {
+	private Corpus() {
+	}
+
+	public static String of(String shape, int size) {
+		switch (shape) {
+			case "functions":
+				return functions(size);
+			case "expressions":
+				return expressions(size);
+			case "strings":
+				return strings(size);
+			default:
+				throw new IllegalArgumentException("Unknown corpus shape `" + shape + "`.");
+		}
+	}
+
+	// Many small functions calling each other, with some constants and objects in between
+	public static String functions(int size) {
+		var builder = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			if (i % 10 == 0) {
+				builder.append("const int C").append(i).append(" = ").append(i).append(";\n\n");
+				builder.append("object O").append(i).append(" {\n")
+					.append("\tint x = ").append(i).append(";\n")
+					.append("\tint y = ").append(i).append(" * 2;\n")
+					.append("}\n\n");
+			}
+
+			builder.append("func int f").append(i).append("(int a, int b) {\n")
+				.append("\tint c = a + b * ").append(i).append(";\n")
+				.append("\tfor (int i : 0..b) {\n")
+				.append("\t\tc += i;\n")
+				.append("\t}\n");
+			if (i > 0) {
+				builder.append("\tif (c > 10) {\n")
+					.append("\t\tc = c - f").append(i - 1).append("(a, 1);\n")
+					.append("\t}\n");
+			}
+			builder.append("\tret c;\n")
+				.append("}\n\n");
+		}
+
+		return builder.toString();
+	}
+
+	// Functions that are made of long, deeply nested expressions
+	public static String expressions(int size) {
+		var builder = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			builder.append("func int e").append(i).append("(int a) {\n")
+				.append("\tret ").append(nested(16, i)).append(";\n")
+				.append("}\n\n");
+		}
+
+		return builder.toString();
+	}
+
+	private static String nested(int depth, int seed) {
+		if (depth == 0) {
+			return "a";
+		}
+
+		var ops = new String[] { " + ", " - ", " * ", " % " };
+		String op = ops[(depth + seed) % ops.length];
+		return "(" + nested(depth - 1, seed) + op + (depth + seed + 1) + ")";
+	}
+
+	// Functions that print lots of different string literals
+	public static String strings(int size) {
+		var builder = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			builder.append("func void s").append(i).append("() {\n");
+			for (int j = 0; j < 5; j++) {
+				builder.append("\tprint(\"string ").append(i).append(" number ").append(j).append("\\n\");\n");
+			}
+			builder.append("}\n\n");
+		}
+
+		return builder.toString();
+	}
+
+	// A main file importing `width` files, where every file also imports the next two
+	public static LinkedHashMap<String, String> importGraph(int width) {
+		var files = new LinkedHashMap<String, String>();
+
+		var main = new StringBuilder();
+		for (int i = 0; i < width; i++) {
+			main.append("import \"F").append(i).append("\";\n");
+		}
+		main.append("\nfunc void main() {\n");
+		for (int i = 0; i < width; i++) {
+			main.append("\tint r").append(i).append(" = F").append(i).append("::f0(1, 2);\n");
+		}
+		main.append("}\n");
+		files.put("App.scope", main.toString());
+
+		for (int i = 0; i < width; i++) {
+			var file = new StringBuilder();
+			for (int j = i + 1; j < Math.min(i + 3, width); j++) {
+				file.append("import \"F").append(j).append("\";\n");
+			}
+			file.append("namespace F").append(i).append(";\n\n");
+			file.append(functions(10));
+			files.put("F" + i + ".scope", file.toString());
+		}
+
+		return files;
+	}
+}
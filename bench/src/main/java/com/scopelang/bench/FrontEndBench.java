@@ -0,0 +1,60 @@
+package com.scopelang.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import com.scopelang.*;
+
+// Lexer, token processor and parser on their own
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrontEndBench {
+	@Param({ "functions", "expressions", "strings" })
+	public String shape;
+
+	@Param({ "10", "100", "1000" })
+	public int size;
+
+	private Pipeline pipeline;
+	private FilePair source;
+	private String text;
+	private ArrayList<Token> tokens;
+
+	@Setup
+	public void setup() throws IOException {
+		text = Corpus.of(shape, size);
+		pipeline = new Pipeline(Map.of("Bench.scope", text), null);
+		source = pipeline.source("Bench.scope");
+		tokens = Pipeline.lex(text);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pipeline.close();
+	}
+
+	@Benchmark
+	public int lex() {
+		return Pipeline.lex(text).size();
+	}
+
+	@Benchmark
+	public Object tokenProcess() {
+		return pipeline.tokenProcess(source, pipeline.modules(source), tokens);
+	}
+
+	@Benchmark
+	public Object parse() {
+		return Pipeline.parse(tokens);
+	}
+}
@@ -0,0 +1,65 @@
+package com.scopelang.bench;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import com.scopelang.*;
+
+// The three gatherer walks over an already parsed file
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GathererBench {
+	@Param({ "functions", "expressions", "strings" })
+	public String shape;
+
+	@Param({ "10", "100", "1000" })
+	public int size;
+
+	private Pipeline pipeline;
+	private FilePair source;
+	private ParseTree tree;
+
+	@Setup
+	public void setup() throws IOException {
+		var text = Corpus.of(shape, size);
+		pipeline = new Pipeline(Map.of("Bench.scope", text), null);
+		source = pipeline.source("Bench.scope");
+		tree = Pipeline.parse(Pipeline.lex(text));
+	}
+
+	@TearDown
+	public void tearDown() {
+		pipeline.close();
+	}
+
+	@Benchmark
+	public Object objects() {
+		var modules = pipeline.modules(source);
+		ParseTreeWalker.DEFAULT.walk(modules.objectGatherer, tree);
+		return modules;
+	}
+
+	@Benchmark
+	public Object consts() {
+		var modules = pipeline.modules(source);
+		ParseTreeWalker.DEFAULT.walk(modules.constGatherer, tree);
+		return modules;
+	}
+
+	@Benchmark
+	public Object funcs() {
+		var modules = pipeline.modules(source);
+		ParseTreeWalker.DEFAULT.walk(modules.funcGatherer, tree);
+		return modules;
+	}
+}
@@ -0,0 +1,58 @@
+package com.scopelang.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import com.scopelang.*;
+
+// Code generation (including writing the file) for an already parsed and gathered file
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeneratorBench {
+	@Param({ "functions", "expressions", "strings" })
+	public String shape;
+
+	@Param({ "10", "100", "1000" })
+	public int size;
+
+	private Pipeline pipeline;
+	private FilePair source;
+	private ParseTree tree;
+	private Modules modules;
+	private File output;
+
+	@Setup
+	public void setup() throws IOException {
+		var text = Corpus.of(shape, size);
+		pipeline = new Pipeline(Map.of("Bench.scope", text), null);
+		source = pipeline.source("Bench.scope");
+		output = new File(pipeline.root, "Bench.scopelib");
+
+		var tokens = Pipeline.lex(text);
+		tree = Pipeline.parse(tokens);
+		modules = pipeline.modules(source);
+		modules.tokenProcessor = pipeline.tokenProcess(source, modules, tokens);
+		Pipeline.gather(modules, tree);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pipeline.close();
+	}
+
+	@Benchmark
+	public Object generate() {
+		pipeline.generate(source, modules, tree, output);
+		return modules.generator;
+	}
+}
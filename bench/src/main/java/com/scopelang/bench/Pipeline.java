@@ -0,0 +1,101 @@
+package com.scopelang.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.apache.commons.io.FileUtils;
+
+import com.scopelang.*;
+import com.scopelang.FilePair.RootType;
+import com.scopelang.fasm.FasmGenerator;
+import com.scopelang.metadata.ImportManager;
+import com.scopelang.preprocess.*;
+import com.scopelang.project.*;
+import com.scopelang.project.CompileTask.Mode;
+
+// A temporary project on disk with the same setup `CompileTask` does, but with
+// every phase available on its own
+public class Pipeline {
+	public File root;
+	public ScopeXml xml;
+	public ImportScheduler scheduler;
+
+	public Pipeline(Map<String, String> files, String main) throws IOException {
+		Utils.disableLog = true;
+
+		root = Files.createTempDirectory("scope-bench").toFile();
+		for (var file : files.entrySet()) {
+			Files.writeString(new File(root, file.getKey()).toPath(), file.getValue(), StandardCharsets.UTF_8);
+		}
+
+		String xmlText = main == null
+			? "<scope>\n\t<mode>library</mode>\n\t<name>bench</name>\n</scope>\n"
+			: "<scope>\n\t<mode>project</mode>\n\t<main>" + main + "</main>\n</scope>\n";
+		Files.writeString(new File(root, "scope.xml").toPath(), xmlText, StandardCharsets.UTF_8);
+
+		xml = new ScopeXml(new File(root, "scope.xml"));
+		scheduler = newScheduler(false);
+	}
+
+	public ImportScheduler newScheduler(boolean rebuildAll) {
+		return new ImportScheduler(xml, root, 1, rebuildAll);
+	}
+
+	public FilePair source(String name) {
+		return new FilePair(root, name, RootType.NORMAL);
+	}
+
+	public Modules modules(FilePair source) {
+		var modules = new Modules(new CompileTask(source, Mode.LIBRARY, scheduler));
+		modules.funcGatherer = new FuncGatherer(modules);
+		modules.constGatherer = new ConstGatherer(modules);
+		modules.objectGatherer = new ObjectGatherer(modules);
+		modules.importManager = new ImportManager(modules);
+		return modules;
+	}
+
+	public static ArrayList<Token> lex(String text) {
+		var stream = new CommonTokenStream(new ScopeLexer(CharStreams.fromString(text)));
+		stream.fill();
+		return new ArrayList<>(stream.getTokens());
+	}
+
+	public static CommonTokenStream stream(ArrayList<Token> tokens) {
+		var stream = new CommonTokenStream(new ListTokenSource(tokens));
+		stream.fill();
+		return stream;
+	}
+
+	public static ParseTree parse(ArrayList<Token> tokens) {
+		return new ScopeParser(stream(tokens)).program();
+	}
+
+	public TokenProcessor tokenProcess(FilePair source, Modules modules, ArrayList<Token> tokens) {
+		return new TokenProcessor(source.toFile(), stream(tokens), xml, modules);
+	}
+
+	public static void gather(Modules modules, ParseTree tree) {
+		ParseTreeWalker.DEFAULT.walk(modules.objectGatherer, tree);
+		ParseTreeWalker.DEFAULT.walk(modules.constGatherer, tree);
+		ParseTreeWalker.DEFAULT.walk(modules.funcGatherer, tree);
+	}
+
+	public void generate(FilePair source, Modules modules, ParseTree tree, File output) {
+		modules.generator = new FasmGenerator(source, output, modules, true);
+		modules.generator.insertHeader();
+		ParseTreeWalker.DEFAULT.walk(modules.generator, tree);
+		modules.generator.finishGen();
+	}
+
+	public void close() {
+		scheduler.shutdown();
+		FileUtils.deleteQuietly(root);
+	}
+}
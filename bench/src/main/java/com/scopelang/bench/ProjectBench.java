@@ -0,0 +1,64 @@
+package com.scopelang.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import com.scopelang.*;
+import com.scopelang.fasm.FasmLinker;
+import com.scopelang.project.CompileTask;
+
+// A whole project with a wide import graph, up to the linked `.scopeasm` (FASM isn't included)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectBench {
+	@Param({ "4", "16", "64" })
+	public int width;
+
+	private Pipeline pipeline;
+	private FilePair main;
+	private FilePair output;
+
+	@Setup
+	public void setup() throws IOException {
+		pipeline = new Pipeline(Corpus.importGraph(width), "App.scope");
+		main = pipeline.source("App.scope");
+		output = CompileTask.convertSourceToLinked(main);
+		new File(pipeline.root, ".cache").mkdirs();
+
+		// Makes sure everything exists for the incremental benchmark
+		rebuild();
+	}
+
+	@TearDown
+	public void tearDown() {
+		pipeline.close();
+	}
+
+	@Benchmark
+	public Object rebuild() {
+		return build(true);
+	}
+
+	@Benchmark
+	public Object incremental() {
+		return build(false);
+	}
+
+	private Object build(boolean rebuildAll) {
+		var scheduler = pipeline.newScheduler(rebuildAll);
+		try {
+			var unit = scheduler.ensureMain(main);
+			return new FasmLinker(scheduler).link(main, unit, output);
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+}
@@ -1,5 +1,10 @@
 grammar Scope;
 
+tokens {
+	// Only an `inline` right before `func` (see `TokenProcessor`), it stays a normal name everywhere else
+	InlineKeyword
+}
+
 // ================ //
 // ==== Parser ==== //
 // ================ //
@@ -107,7 +112,7 @@ assembly
 
 // Outer statements
 function
-	: FuncKeyword typeName Identifier '(' parameters ')' (codeblock | EndLine)
+	: InlineKeyword? FuncKeyword typeName Identifier '(' parameters ')' (codeblock | EndLine)
 	;
 const
 	: ConstKeyword typeName Identifier '=' literals EndLine
@@ -24,12 +24,19 @@ public class Modules {
 
 	public ArrayList<FilePair> globalImports;
 
+	// Where errors go instead while a body from another file is inlined
+	public ErrorLoc inlinedAt = null;
+
 	public Modules(CompileTask task) {
 		this.task = task;
 		globalImports = new ArrayList<>();
 	}
 
 	public ErrorLoc locationOf(Token token) {
+		if (inlinedAt != null) {
+			return inlinedAt;
+		}
+
 		return new ErrorLoc(
 			generator.sourceFile.toFile(), token.getLine(),
 			token.getCharPositionInLine() + 1);
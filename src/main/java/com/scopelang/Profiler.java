@@ -0,0 +1,203 @@
+package com.scopelang;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.apache.commons.text.StringEscapeUtils;
+
+// Records how long each phase of the compiler takes (per file) and writes it
+// in the Chrome trace format, which can be opened in `chrome://tracing` or Perfetto
+public final class Profiler {
+	public static class Phase implements AutoCloseable {
+		private String name;
+		private String file;
+		private long thread;
+		private long start;
+		private long startAllocated;
+		private ArrayList<String> args = new ArrayList<>();
+
+		private Phase(String name, String file) {
+			this.name = name;
+			this.file = file;
+			thread = Thread.currentThread().getId();
+			startAllocated = allocatedBytes();
+			start = System.nanoTime();
+		}
+
+		public Phase arg(String key, long value) {
+			if (this != DISABLED) {
+				args.add(quote(key) + ":" + value);
+			}
+
+			return this;
+		}
+
+		@Override
+		public void close() {
+			if (this == DISABLED) {
+				return;
+			}
+
+			long end = System.nanoTime();
+			long allocated = allocatedBytes() - startAllocated;
+			arg("allocatedBytes", allocated);
+
+			events.add(new Event(name, end - start, allocated));
+			record("X", name, file, thread, start, end - start, args);
+		}
+	}
+
+	private static class Event {
+		public String name;
+		public long nanos;
+		public long allocated;
+
+		public Event(String name, long nanos, long allocated) {
+			this.name = name;
+			this.nanos = nanos;
+			this.allocated = allocated;
+		}
+	}
+
+	private static final Phase DISABLED = new Phase("", "");
+
+	private static volatile boolean enabled = false;
+	private static long origin = 0;
+	private static ConcurrentLinkedQueue<String> trace = new ConcurrentLinkedQueue<>();
+	private static ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>();
+	private static ConcurrentHashMap<String, Long> counters = new ConcurrentHashMap<>();
+
+	private Profiler() {
+	}
+
+	public static void start() {
+		trace.clear();
+		events.clear();
+		counters.clear();
+		origin = System.nanoTime();
+		enabled = true;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static Phase begin(String name, FilePair file) {
+		return begin(name, file.file.getPath());
+	}
+
+	public static Phase begin(String name, String file) {
+		return enabled ? new Phase(name, file) : DISABLED;
+	}
+
+	// A single measurement that doesn't take any time (like instructions in a codeblock)
+	public static void count(String name, FilePair file, String key, long value) {
+		if (!enabled) {
+			return;
+		}
+
+		var args = new ArrayList<String>();
+		args.add(quote(key) + ":" + value);
+		record("i", name, file.file.getPath(), Thread.currentThread().getId(), System.nanoTime(), -1, args);
+	}
+
+	// Adds up over the whole build, like how often an optimization was applied
+	public static void tally(String name, long amount) {
+		if (enabled) {
+			counters.merge(name, amount, Long::sum);
+		}
+	}
+
+	public static long nodeCount(ParseTree tree) {
+		long count = 1;
+		for (int i = 0; i < tree.getChildCount(); i++) {
+			count += nodeCount(tree.getChild(i));
+		}
+
+		return count;
+	}
+
+	public static void finish(File output) {
+		if (!enabled) {
+			return;
+		}
+		enabled = false;
+
+		try {
+			Files.writeString(output.toPath(), "{\"traceEvents\":[\n" + String.join(",\n", trace) + "\n]}\n",
+				StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			Utils.error("Could not write the profile to `" + output + "`.");
+			return;
+		}
+
+		// Short summary, the trace has all the details
+		var totals = new TreeMap<String, long[]>();
+		for (var event : events) {
+			var total = totals.computeIfAbsent(event.name, k -> new long[3]);
+			total[0]++;
+			total[1] += event.nanos;
+			total[2] += event.allocated;
+		}
+
+		System.out.println(String.format("%-16s %6s %10s %12s", "phase", "count", "time (ms)", "alloc (KiB)"));
+		for (var total : totals.entrySet()) {
+			var value = total.getValue();
+			System.out.println(String.format("%-16s %6d %10.2f %12d", total.getKey(), value[0],
+				value[1] / 1_000_000.0, value[2] / 1024));
+		}
+
+		if (!counters.isEmpty()) {
+			System.out.println();
+			System.out.println(String.format("%-32s %10s", "counter", "total"));
+			for (var counter : new TreeMap<>(counters).entrySet()) {
+				System.out.println(String.format("%-32s %10d", counter.getKey(), counter.getValue()));
+			}
+		}
+		System.out.println("Profile written to `" + output + "`.");
+	}
+
+	private static void record(String type, String name, String file, long thread, long start, long nanos,
+		ArrayList<String> args) {
+
+		var builder = new StringBuilder();
+		builder.append("{\"name\":").append(quote(name))
+			.append(",\"cat\":\"compile\",\"ph\":\"").append(type).append('"')
+			.append(",\"pid\":1,\"tid\":").append(thread)
+			.append(",\"ts\":").append((start - origin) / 1000.0);
+		if (nanos >= 0) {
+			builder.append(",\"dur\":").append(nanos / 1000.0);
+		} else {
+			builder.append(",\"s\":\"t\"");
+		}
+
+		builder.append(",\"args\":{\"file\":").append(quote(file));
+		for (var arg : args) {
+			builder.append(',').append(arg);
+		}
+		builder.append("}}");
+
+		trace.add(builder.toString());
+	}
+
+	private static long allocatedBytes() {
+		var bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+
+		return 0;
+	}
+
+	private static String quote(String str) {
+		return "\"" + StringEscapeUtils.escapeJson(str) + "\"";
+	}
+}
@@ -3,11 +3,18 @@ package com.scopelang;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
+import java.util.function.ToIntFunction;
 
 import org.apache.commons.cli.*;
 import org.apache.commons.io.FileUtils;
 
+import com.scopelang.daemon.CompileDaemon;
+import com.scopelang.error.CompileError;
+import com.scopelang.ir.PassManager;
+import com.scopelang.ir.PeepholeOptimizer;
+import com.scopelang.project.BuildCache;
 import com.scopelang.project.ProjectCompileTask;
+import com.scopelang.project.ProjectWatcher;
 import com.scopelang.project.ScopeXml;
 
 public final class Scope {
@@ -15,6 +22,25 @@ public final class Scope {
 	}
 
 	public static void main(String[] args) {
+		int code = execute(args, null, exe -> Utils.runCmdAndWait(true, exe.getAbsolutePath()));
+		if (code != 0) {
+			System.exit(code);
+		}
+	}
+
+	// `currentDir` is null when paths are relative to this process, `runner` runs
+	// the executable in `run` mode. Returns the exit code.
+	public static int execute(String[] args, File currentDir, ToIntFunction<File> runner) {
+		try {
+			run(args, currentDir, runner);
+			return 0;
+		} catch (CompileError e) {
+			System.err.println(e.getMessage());
+			return 1;
+		}
+	}
+
+	private static void run(String[] args, File currentDir, ToIntFunction<File> runner) {
 		// Add options
 		var options = new Options();
 
@@ -27,6 +53,30 @@ public final class Scope {
 		var fullOpt = new Option("f", "full", false, "Shows the full debug output.");
 		options.addOption(fullOpt);
 
+		var jobsOpt = new Option("j", "jobs", true, "How many files can be compiled at the same time.");
+		options.addOption(jobsOpt);
+
+		var optimizeOpt = new Option("O", "optimize", true, "The optimization level, from 0 to " + PassManager.MAX_LEVEL
+			+ " (default " + PassManager.DEFAULT_LEVEL + ").");
+		options.addOption(optimizeOpt);
+
+		var passOpt = new Option(null, "pass", true, "Turns optimization passes on (`+name`) or off (`-name`), separated by commas ("
+			+ String.join(", ", PassManager.PASSES) + ").");
+		options.addOption(passOpt);
+
+		var emitDiffOpt = new Option(null, "emit-diff", false, "Writes how each pass changed every function to a `.diff` file in the build cache.");
+		options.addOption(emitDiffOpt);
+
+		var disableRulesOpt = new Option(null, "disable-rules", true, "Peephole rules to leave out, separated by commas ("
+			+ String.join(", ", PeepholeOptimizer.ruleNames()) + ").");
+		options.addOption(disableRulesOpt);
+
+		var profileOpt = new Option("p", "profile", false, "Writes how long each part of the build took to `scope-profile.json`.");
+		options.addOption(profileOpt);
+
+		var sharedOpt = new Option(null, "shared", false, "With `clean`, also deletes the build cache that every project shares.");
+		options.addOption(sharedOpt);
+
 		// Parse command line args
 		CommandLineParser parser = new DefaultParser();
 		HelpFormatter formatter = new HelpFormatter();
@@ -46,11 +96,22 @@ public final class Scope {
 		} else {
 			String mode = cmd.getArgs()[0];
 
+			// The daemon isn't tied to any project
+			if (mode.equals("daemon")) {
+				new CompileDaemon().serve();
+				return;
+			}
+
 			// Set the working directory from the -d flag
 			String dir = cmd.getOptionValue("dir");
 			File workingDir;
 			if (dir != null) {
 				workingDir = new File(dir);
+				if (currentDir != null && !workingDir.isAbsolute()) {
+					workingDir = new File(currentDir, dir);
+				}
+			} else if (currentDir != null) {
+				workingDir = currentDir;
 			} else {
 				workingDir = new File(System.getProperty("user.dir"));
 			}
@@ -77,22 +138,30 @@ public final class Scope {
 			if (mode.equals("clean")) {
 				try {
 					if (projXml.mode.equals("library")) {
-						// Delete all scopelib and scopeasm files
+						// Delete all scopelib, scopeidx and scopeasm files
 						Files.walk(xmlFile.getParentFile().toPath())
 							.filter(Files::isRegularFile).forEach(p -> {
 								var f = p.toFile();
 								if (f.getName().endsWith(".scopelib") ||
+									f.getName().endsWith(".scopeidx") ||
 									f.getName().endsWith(".scopeasm") ||
 									f.getName().equals(projXml.name + ".zip")) {
 
 									f.delete();
 								}
 							});
+
+						// Delete the hash cache
+						FileUtils.deleteDirectory(new File(workingDir, ".cache"));
 					} else {
 						// Delete cache folders
 						FileUtils.deleteDirectory(new File(workingDir, ".lib"));
 						FileUtils.deleteDirectory(new File(workingDir, ".cache"));
 					}
+
+					if (cmd.hasOption("shared")) {
+						FileUtils.deleteDirectory(BuildCache.storeDir());
+					}
 				} catch (IOException e) {
 					Utils.error("Could not delete cache folder or lib files.");
 					if (!Utils.disableLog) {
@@ -104,28 +173,113 @@ public final class Scope {
 
 			var task = new ProjectCompileTask(xmlFile.getParentFile(), projXml);
 
-			// Build/run or whatever
-			switch (mode) {
-				case "build":
-					task.run();
-					break;
-				case "run":
-					File exe = task.run();
-					if (exe == null) {
-						Utils.error("An executable was not created in this project mode.",
-							"Try using `scope build` next time.");
-						break;
+			// Set the amount of parallel jobs from the -j flag
+			String jobs = cmd.getOptionValue("jobs");
+			if (jobs != null) {
+				try {
+					task.jobs = Integer.parseInt(jobs);
+				} catch (NumberFormatException e) {
+					task.jobs = 0;
+				}
+
+				if (task.jobs < 1) {
+					Utils.error("`" + jobs + "` is not a valid amount of jobs.",
+						"The `-j` option expects a positive number like so:",
+						"scope build -j 4");
+					return;
+				}
+			}
+
+			// Set the optimization level from the -O flag
+			String optimize = cmd.getOptionValue("optimize");
+			if (optimize != null) {
+				try {
+					projXml.optLevel = Integer.parseInt(optimize);
+				} catch (NumberFormatException e) {
+					projXml.optLevel = -1;
+				}
+
+				if (projXml.optLevel < 0 || projXml.optLevel > PassManager.MAX_LEVEL) {
+					Utils.error("`" + optimize + "` is not a valid optimization level.",
+						"The `-O` option expects a level from 0 to " + PassManager.MAX_LEVEL + " like so:",
+						"scope build -O 0");
+					return;
+				}
+			}
+
+			// Turn passes on and off with --pass (the last one of a pass wins)
+			String[] passes = cmd.getOptionValues("pass");
+			if (passes != null) {
+				for (var toggles : passes) {
+					for (var toggle : toggles.split(",")) {
+						toggle = toggle.trim();
+						if (toggle.length() < 2 || "+-".indexOf(toggle.charAt(0)) == -1
+							|| !PassManager.PASSES.contains(toggle.substring(1))) {
+
+							Utils.error("`" + toggle + "` doesn't turn a pass on or off.",
+								"Use `+name` or `-name` like so:",
+								"scope build --pass=-inline,+repeat",
+								"The passes are: " + String.join(", ", PassManager.PASSES));
+							return;
+						}
+
+						projXml.passToggles.remove("+" + toggle.substring(1));
+						projXml.passToggles.remove("-" + toggle.substring(1));
+						projXml.passToggles.add(toggle);
 					}
+				}
+			}
 
-					int exitCode = Utils.runCmdAndWait(true, exe.getAbsolutePath());
-					if (exitCode != 0) {
-						Utils.error("Compiled program exited with non-zero exit code: " + exitCode,
-							"A non-zero exit code usually signifies an error.");
+			projXml.emitDiff = cmd.hasOption("emit-diff");
+
+			// Leave out the peephole rules from --disable-rules
+			String disableRules = cmd.getOptionValue("disable-rules");
+			if (disableRules != null) {
+				for (var rule : disableRules.split(",")) {
+					if (!PeepholeOptimizer.ruleNames().contains(rule.trim())) {
+						Utils.error("`" + rule.trim() + "` is not a peephole rule.",
+							"The rules are: " + String.join(", ", PeepholeOptimizer.ruleNames()));
+						return;
 					}
-					break;
-				default:
-					printHelp(formatter, options);
-					return;
+
+					projXml.disabledRules.add(rule.trim());
+				}
+			}
+
+			// Profile the build if asked to
+			if (cmd.hasOption("profile")) {
+				Profiler.start();
+			}
+
+			// Build/run or whatever
+			try {
+				switch (mode) {
+					case "build":
+						task.run();
+						break;
+					case "watch":
+						new ProjectWatcher(xmlFile, task.jobs, projXml).run();
+						break;
+					case "run":
+						File exe = task.run();
+						if (exe == null) {
+							Utils.error("An executable was not created in this project mode.",
+								"Try using `scope build` next time.");
+							break;
+						}
+
+						int exitCode = runner.applyAsInt(exe);
+						if (exitCode != 0) {
+							Utils.error("Compiled program exited with non-zero exit code: " + exitCode,
+								"A non-zero exit code usually signifies an error.");
+						}
+						break;
+					default:
+						printHelp(formatter, options);
+						return;
+				}
+			} finally {
+				Profiler.finish(new File(workingDir, "scope-profile.json"));
 			}
 		}
 	}
@@ -135,6 +289,8 @@ public final class Scope {
 		System.out.println("\nmodes:");
 		System.out.println(" build   Builds the project.");
 		System.out.println(" run     Builds then runs the project.");
+		System.out.println(" watch   Builds the project every time a file changes.");
 		System.out.println(" clean   Deletes all cache files.");
+		System.out.println(" daemon  Keeps a warm compiler running for faster builds.");
 	}
 }
\ No newline at end of file
@@ -30,6 +30,11 @@ public class ScopeType {
 		return name.equals("void");
 	}
 
+	// Strings, arrays and objects, which the collector has to follow
+	public boolean isReference() {
+		return !isVoid() && !equals(INT) && !equals(DEC) && !equals(BOOL);
+	}
+
 	@Override
 	public String toString() {
 		String output = name;
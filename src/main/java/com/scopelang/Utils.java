@@ -10,6 +10,7 @@ import org.apache.commons.io.*;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.commons.text.similarity.LevenshteinDistance;
 
+import com.scopelang.error.CompileError;
 import com.scopelang.error.ErrorLoc;
 
 public final class Utils {
@@ -22,8 +23,30 @@ public final class Utils {
 		"r11"
 	};
 
+	public static class CapturedOutput {
+		private ArrayList<String> lines = new ArrayList<>();
+		private ArrayList<Boolean> isError = new ArrayList<>();
+
+		public boolean isEmpty() {
+			return lines.isEmpty();
+		}
+
+		public void print() {
+			for (int i = 0; i < lines.size(); i++) {
+				(isError.get(i) ? System.err : System.out).println(lines.get(i));
+			}
+		}
+	}
+
 	public static boolean disableLog = false;
 
+	// Copy the output of commands into System.out instead of inheriting this process' output
+	public static boolean pipeCommands = false;
+
+	// Output of tasks running in parallel is held back so it can be printed in order
+	private static final ThreadLocal<ArrayDeque<CapturedOutput>> captures = ThreadLocal
+		.withInitial(ArrayDeque::new);
+
 	private Utils() {
 	}
 
@@ -60,6 +83,19 @@ public final class Utils {
 		}
 	}
 
+	public static byte[] readFileBytes(File file) {
+		try {
+			return FileUtils.readFileToByteArray(file);
+		} catch (Exception e) {
+			Utils.error("File `" + file + "` could not be read.", "Does `" + file + "` exist?");
+			if (!Utils.disableLog) {
+				e.printStackTrace();
+			}
+			Utils.forceExit();
+			return null;
+		}
+	}
+
 	public static String hashOf(File file) {
 		try {
 			return DigestUtils.md5Hex(new FileInputStream(file));
@@ -76,7 +112,9 @@ public final class Utils {
 	public static Process runCmd(boolean inheritIO, String... cmd) {
 		try {
 			var builder = new ProcessBuilder(cmd);
-			if (inheritIO) {
+			if (inheritIO && pipeCommands) {
+				builder.redirectErrorStream(true);
+			} else if (inheritIO) {
 				builder.inheritIO();
 			}
 			return builder.start();
@@ -94,6 +132,9 @@ public final class Utils {
 	public static int runCmdAndWait(boolean inheritIO, String... cmd) {
 		Process p = runCmd(inheritIO, cmd);
 		try {
+			if (inheritIO && pipeCommands) {
+				p.getInputStream().transferTo(System.out);
+			}
 			return p.waitFor();
 		} catch (Exception e) {
 			log("Failed to wait for process.");
@@ -102,20 +143,45 @@ public final class Utils {
 		}
 	}
 
+	public static void beginCapture() {
+		captures.get().push(new CapturedOutput());
+	}
+
+	public static CapturedOutput endCapture() {
+		return captures.get().pop();
+	}
+
+	public static boolean isCapturing() {
+		return !captures.get().isEmpty();
+	}
+
+	private static void print(boolean isError, String str) {
+		var capture = captures.get().peek();
+		if (capture == null) {
+			(isError ? System.err : System.out).println(str);
+			return;
+		}
+
+		capture.lines.add(str);
+		capture.isError.add(isError);
+	}
+
 	public static void log(String str) {
 		if (disableLog) {
 			return;
 		}
 
-		System.out.println(str);
+		print(false, str);
 	}
 
 	public static void error(String str, String... extra) {
-		System.err.println("\033[1;91mERROR: \033[0;1m" + str + "\033[0m");
+		// Built up first so that errors from parallel tasks don't interleave
+		var message = new StringBuilder();
+		message.append("\033[1;91mERROR: \033[0;1m" + str + "\033[0m\n");
 		for (String s : extra) {
-			System.err.println("\033[1;91m   | \033[0;2m" + s + "\033[0m");
+			message.append("\033[1;91m   | \033[0;2m" + s + "\033[0m\n");
 		}
-		System.err.println("");
+		print(true, message.toString());
 	}
 
 	public static void error(ErrorLoc loc, String str, String... extra) {
@@ -129,16 +195,16 @@ public final class Utils {
 	}
 
 	public static void warn(String str, String... extra) {
-		System.err.println("\033[1;93mWARN: \033[0;1m" + str + "\033[0m");
+		var message = new StringBuilder();
+		message.append("\033[1;93mWARN: \033[0;1m" + str + "\033[0m\n");
 		for (String s : extra) {
-			System.err.println("\033[1;93m   | \033[0;2m" + s + "\033[0m");
+			message.append("\033[1;93m   | \033[0;2m" + s + "\033[0m\n");
 		}
-		System.err.println("");
+		print(true, message.toString());
 	}
 
 	public static void forceExit() {
-		System.err.println("The program could not finish compiling due to above errors.");
-		System.err.println("Force exiting.");
-		System.exit(1);
+		// Only stops the current task, the caller decides what happens next
+		throw new CompileError();
 	}
 }
\ No newline at end of file
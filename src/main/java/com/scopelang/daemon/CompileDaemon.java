@@ -0,0 +1,173 @@
+package com.scopelang.daemon;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.scopelang.Scope;
+import com.scopelang.Utils;
+import com.scopelang.project.BuildCache;
+
+public class CompileDaemon {
+	// Lines starting with these are instructions for the `scope` launcher
+	public static final String EXIT_PREFIX = "@@scope-daemon:exit ";
+	public static final String RUN_PREFIX = "@@scope-daemon:run ";
+	public static final String RESTART_LINE = "@@scope-daemon:restart";
+
+	private File infoFile;
+	private String token;
+	private String buildStamp;
+	private boolean stale = false;
+
+	public CompileDaemon() {
+		infoFile = infoFile();
+	}
+
+	public static File infoFile() {
+		return new File(System.getProperty("user.home"), ".scope" + File.separator + "daemon");
+	}
+
+	public void serve() {
+		// Java 11 has no unix sockets, so listen on loopback only and
+		// require a secret that only the current user can read
+		try (var server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+			var bytes = new byte[32];
+			new SecureRandom().nextBytes(bytes);
+			token = Hex.encodeHexString(bytes);
+			buildStamp = BuildCache.buildStamp();
+
+			writeInfoFile(server.getLocalPort());
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> infoFile.delete()));
+
+			System.out.println("Scope daemon is listening on port " + server.getLocalPort() + ".");
+			System.out.println("Builds started with the `scope` launcher are now sent here.");
+
+			while (!stale) {
+				try (var socket = server.accept()) {
+					handle(socket);
+				} catch (IOException e) {
+					Utils.warn("Lost connection to a client.");
+				} catch (RuntimeException e) {
+					// One bad client shouldn't take the daemon down for everyone else
+					Utils.warn("Could not handle a request.");
+					if (!Utils.disableLog) {
+						e.printStackTrace();
+					}
+				}
+			}
+
+			System.out.println("The compiler was rebuilt, so the daemon stopped.");
+			System.out.println("Start it again to use the new one.");
+		} catch (IOException e) {
+			Utils.error("Could not start the daemon.",
+				"Use `-f` for more info.");
+			if (!Utils.disableLog) {
+				e.printStackTrace();
+			}
+		} finally {
+			infoFile.delete();
+		}
+	}
+
+	private void writeInfoFile(int port) throws IOException {
+		Files.createDirectories(infoFile.getParentFile().toPath());
+
+		// Create it private first and then move it in place
+		var temp = new File(infoFile.getPath() + ".tmp");
+		temp.delete();
+		Files.createFile(temp.toPath(),
+			PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		Files.writeString(temp.toPath(), port + " " + token + "\n");
+		Files.move(temp.toPath(), infoFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void handle(Socket socket) throws IOException {
+		var in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+		var out = new PrintStream(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+
+		// Request format: token, working directory, argument count, arguments (one per line)
+		String clientToken = in.readLine();
+		if (clientToken == null || !MessageDigest.isEqual(clientToken.getBytes(StandardCharsets.UTF_8),
+			token.getBytes(StandardCharsets.UTF_8))) {
+
+			out.println("Invalid daemon token.");
+			out.println(EXIT_PREFIX + 1);
+			return;
+		}
+
+		String dirLine = in.readLine();
+		int argCount = parseCount(in.readLine());
+		var argList = new ArrayList<String>();
+		for (String arg; argList.size() < argCount && (arg = in.readLine()) != null;) {
+			argList.add(arg);
+		}
+
+		// Cut short or not from the launcher
+		if (dirLine == null || argCount < 0 || argList.size() != argCount) {
+			out.println("Invalid daemon request.");
+			out.println(EXIT_PREFIX + 1);
+			return;
+		}
+
+		// Its build id would be stale, so the launcher compiles it itself
+		if (!buildStamp.equals(BuildCache.buildStamp())) {
+			stale = true;
+			out.println(RESTART_LINE);
+			return;
+		}
+
+		var currentDir = new File(dirLine);
+		var args = argList.toArray(String[]::new);
+
+		long start = System.nanoTime();
+
+		// Send everything the build prints to the client
+		var oldOut = System.out;
+		var oldErr = System.err;
+		System.setOut(out);
+		System.setErr(out);
+		Utils.pipeCommands = true;
+
+		int code;
+		try {
+			code = Scope.execute(args, currentDir, exe -> {
+				// The launcher runs it so it is attached to the right terminal
+				out.println(RUN_PREFIX + exe.getAbsolutePath());
+				return 0;
+			});
+		} catch (Exception e) {
+			e.printStackTrace();
+			code = 1;
+		} finally {
+			Utils.pipeCommands = false;
+			System.setOut(oldOut);
+			System.setErr(oldErr);
+		}
+
+		out.println(EXIT_PREFIX + code);
+
+		long ms = (System.nanoTime() - start) / 1_000_000;
+		System.out.println("Handled `" + String.join(" ", args) + "` in " + currentDir + " (" + ms + " ms).");
+	}
+
+	// -1 if it isn't a count
+	private static int parseCount(String line) {
+		if (line == null) {
+			return -1;
+		}
+
+		try {
+			return Math.max(Integer.parseInt(line.strip()), -1);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
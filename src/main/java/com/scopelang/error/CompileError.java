@@ -0,0 +1,13 @@
+package com.scopelang.error;
+
+public class CompileError extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public CompileError() {
+		super("The program could not finish compiling due to above errors.");
+	}
+
+	public CompileError(Throwable cause) {
+		super("The program could not finish compiling due to above errors.", cause);
+	}
+}
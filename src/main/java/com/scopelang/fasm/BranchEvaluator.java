@@ -0,0 +1,240 @@
+package com.scopelang.fasm;
+
+import java.util.Map;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import com.scopelang.ScopeParser.*;
+import com.scopelang.ScopeType;
+import com.scopelang.Utils;
+
+// Conditions of `if`, `while` and `for`. Instead of making a bool and testing it, comparisons jump
+// on the flags they set, and `&` and `|` skip their right side when the left one already decides.
+public final class BranchEvaluator {
+	// The jump for when the comparison is true, and the one for when it is false
+	private static final Map<String, String[]> INT_JUMPS = Map.of(
+		"==", new String[] { "je", "jne" },
+		"!=", new String[] { "jne", "je" },
+		">", new String[] { "jg", "jle" },
+		"<", new String[] { "jl", "jge" },
+		">=", new String[] { "jge", "jl" },
+		"<=", new String[] { "jle", "jg" });
+
+	// `comisd` sets the flags like an unsigned compare would, and all of these are false for NaN.
+	// `<` and `<=` swap the operands, like the operators do.
+	private static final Map<String, String[]> DEC_JUMPS = Map.of(
+		">", new String[] { "ja", "jbe" },
+		"<", new String[] { "ja", "jbe" },
+		">=", new String[] { "jae", "jb" },
+		"<=", new String[] { "jae", "jb" });
+
+	private BranchEvaluator() {
+	}
+
+	// Jumps to `label` when the condition is `when`, and falls through when it isn't
+	public static ScopeType eval(Codeblock cb, ExprContext ctx, String label, boolean when) {
+		if (!optimizing(cb)) {
+			var type = ExprEvaluator.eval(cb, ctx);
+			test(cb, label, when);
+			return type;
+		}
+
+		return branch(cb, ctx, label, when);
+	}
+
+	// An operator that was already given its operands (left in `rdi`, right in `rsi`), used as a condition
+	public static ScopeType useCondition(Codeblock cb, String operator, ScopeType left, ScopeType right,
+		String label, boolean when) {
+
+		if (optimizing(cb)) {
+			if (left.equals(ScopeType.INT) && right.equals(ScopeType.INT) && INT_JUMPS.containsKey(operator)) {
+				cb.add("cmp rdi, rsi");
+				cb.add(INT_JUMPS.get(operator)[when ? 0 : 1] + " ." + label);
+				return ScopeType.BOOL;
+			} else if (left.equals(ScopeType.DEC) && right.equals(ScopeType.DEC) && DEC_JUMPS.containsKey(operator)) {
+				cb.add("movq xmm0, rdi");
+				cb.add("movq xmm1, rsi");
+				cb.add(operator.startsWith("<") ? "comisd xmm1, xmm0" : "comisd xmm0, xmm1");
+				cb.add(DEC_JUMPS.get(operator)[when ? 0 : 1] + " ." + label);
+				return ScopeType.BOOL;
+			}
+		}
+
+		var type = ExprEvaluator.useOperator(operator, left, right, cb);
+		if (type != null) {
+			test(cb, label, when);
+		}
+
+		return type;
+	}
+
+	private static boolean optimizing(Codeblock cb) {
+		return cb.enabled("branch");
+	}
+
+	// The bool in `rdi`
+	private static void test(Codeblock cb, String label, boolean when) {
+		cb.add(when ? "cmp rdi, 1" : "cmp rdi, 0");
+		cb.add("je ." + label);
+	}
+
+	private static ScopeType branch(Codeblock cb, ExprContext ctx, String label, boolean when) {
+		// Always or never taken
+		var value = ConstFolder.fold(cb, ctx);
+		if (value != null && value.type.equals(ScopeType.BOOL)) {
+			if ((value.bits == 1) == when) {
+				cb.add("jmp ." + label);
+			}
+
+			return ScopeType.BOOL;
+		}
+
+		if (ctx.atom() == null && ctx.LeftParen() != null && ctx.RightParen() != null) {
+			return branch(cb, ctx.expr(0), label, when);
+		} else if (ctx.Not() != null && isCondition(ctx.expr(0))) {
+			return branch(cb, ctx.expr(0), label, !when);
+		} else if ((ctx.And() != null || ctx.Or() != null) && isPure(ctx.expr(1))) {
+			return shortCircuit(cb, ctx, label, when);
+		}
+
+		String operator = comparison(ctx);
+		if (operator != null) {
+			return compare(cb, ctx, operator, label, when);
+		}
+
+		var type = ExprEvaluator.eval(cb, ctx);
+		test(cb, label, when);
+		return type;
+	}
+
+	private static ScopeType shortCircuit(Codeblock cb, ExprContext ctx, String label, boolean when) {
+		boolean and = ctx.And() != null;
+
+		// `a & b` is false as soon as `a` is, and `a | b` is true as soon as `a` is
+		ScopeType left;
+		ScopeType right;
+		if (and != when) {
+			left = branch(cb, ctx.expr(0), label, when);
+			right = branch(cb, ctx.expr(1), label, when);
+		} else {
+			String skip = cb.nextLabelName();
+			left = branch(cb, ctx.expr(0), skip, !when);
+			right = branch(cb, ctx.expr(1), label, when);
+			cb.add("." + skip + ":");
+		}
+
+		if (left == null || right == null) {
+			return null;
+		}
+
+		if (!left.equals(ScopeType.BOOL) || !right.equals(ScopeType.BOOL)) {
+			Utils.error(cb.modules.locationOf(ctx.start),
+				"No operator `" + (and ? "&" : "|") + "` that has the arguments `" + left + "` and `" + right + "`.");
+			cb.errored = true;
+			return null;
+		}
+
+		return ScopeType.BOOL;
+	}
+
+	private static ScopeType compare(Codeblock cb, ExprContext ctx, String operator, String label, boolean when) {
+		// `cmp` can take a small constant as it is
+		var constant = ConstFolder.fold(cb, ctx.expr(1));
+		if (constant != null && constant.type.equals(ScopeType.INT) && constant.bits == (int) constant.bits) {
+			var left = ExprEvaluator.eval(cb, ctx.expr(0));
+			if (left == null) {
+				return null;
+			}
+
+			if (left.equals(ScopeType.INT)) {
+				cb.add("cmp rdi, " + constant.bits);
+				cb.add(INT_JUMPS.get(operator)[when ? 0 : 1] + " ." + label);
+				return ScopeType.BOOL;
+			}
+
+			cb.add("mov rsi, QWORD " + constant.bits);
+			return useConditionOrError(cb, ctx, operator, left, ScopeType.INT, label, when);
+		}
+
+		// Same order as the operators
+		var right = ExprEvaluator.eval(cb, ctx.expr(1));
+		if (right == null) {
+			return null;
+		}
+		cb.add("push rdi");
+
+		var left = ExprEvaluator.eval(cb, ctx.expr(0));
+		if (left == null) {
+			return null;
+		}
+		cb.add("pop rsi");
+
+		return useConditionOrError(cb, ctx, operator, left, right, label, when);
+	}
+
+	private static ScopeType useConditionOrError(Codeblock cb, ExprContext ctx, String operator, ScopeType left,
+		ScopeType right, String label, boolean when) {
+
+		var type = useCondition(cb, operator, left, right, label, when);
+		if (type == null) {
+			Utils.error(cb.modules.locationOf(ctx.start),
+				"No operator `" + operator + "` that has the arguments `" + left + "` and `" + right + "`.");
+			cb.errored = true;
+		}
+
+		return type;
+	}
+
+	private static String comparison(ExprContext ctx) {
+		if (ctx.expr().size() != 2) {
+			return null;
+		} else if (ctx.Equals() != null) {
+			return "==";
+		} else if (ctx.NotEquals() != null) {
+			return "!=";
+		} else if (ctx.GreaterThan() != null) {
+			return ">";
+		} else if (ctx.LessThan() != null) {
+			return "<";
+		} else if (ctx.GreaterThanEqual() != null) {
+			return ">=";
+		} else if (ctx.LessThanEqual() != null) {
+			return "<=";
+		}
+
+		return null;
+	}
+
+	// Always a bool (or an error), so it can be branched on without making it first
+	private static boolean isCondition(ExprContext ctx) {
+		if (ctx.atom() == null && ctx.LeftParen() != null && ctx.RightParen() != null) {
+			return isCondition(ctx.expr(0));
+		} else if (ctx.Not() != null) {
+			return isCondition(ctx.expr(0));
+		}
+
+		return ctx.And() != null || ctx.Or() != null || comparison(ctx) != null;
+	}
+
+	// Skipping it can't be noticed: no calls, allocations, or anything that can crash
+	private static boolean isPure(ParseTree tree) {
+		if (tree instanceof AtomContext && ((AtomContext) tree).LeftParen() != null) {
+			return false;
+		} else if (tree instanceof ArrayInitContext || tree instanceof ObjectInitContext) {
+			return false;
+		} else if (tree instanceof ExprContext) {
+			var expr = (ExprContext) tree;
+			if (expr.Div() != null || expr.Mod() != null || expr.LeftBracket() != null) {
+				return false;
+			}
+		}
+
+		for (int i = 0; i < tree.getChildCount(); i++) {
+			if (!isPure(tree.getChild(i))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
@@ -1,6 +1,6 @@
 package com.scopelang.fasm;
 
-import java.util.ArrayList;
+import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
@@ -11,12 +11,15 @@ import org.antlr.v4.runtime.ParserRuleContext;
 import com.scopelang.*;
 import com.scopelang.ScopeParser.ExprContext;
 import com.scopelang.error.ErrorLoc;
+import com.scopelang.ir.*;
 
 public class Codeblock {
 	public static class VariableInfo {
 		public int id;
 		public int scope;
 		public ScopeType type;
+		// Known at compile time, so it is never stored
+		public ConstFolder.Value value = null;
 
 		public VariableInfo(int id, int scope, ScopeType type) {
 			this.id = id;
@@ -34,6 +37,10 @@ public class Codeblock {
 		public String breakLabel;
 		public String continueLabel;
 
+		// The end and step of a `for` that were evaluated once, before the loop
+		public VariableInfo end;
+		public VariableInfo step;
+
 		public LabelInfo() {
 
 		}
@@ -50,44 +57,36 @@ public class Codeblock {
 	private int labelNext = 0;
 	private Stack<LabelInfo> labelStack = new Stack<>();
 
-	private ArrayList<String> instructions = new ArrayList<>();
-	private String output = "";
+	// What the listener lowers the function into
+	public IrFunction function;
+
+	// Locals that are assigned to somewhere in the function, the rest can be folded
+	public Set<String> reassigned = Set.of();
+	public HashMap<ExprContext, ConstFolder.Value> folded = new HashMap<>();
 
 	public int indent = 1;
 
-	public Codeblock(Modules modules) {
+	public Codeblock(Modules modules, String name) {
 		this.modules = modules;
+		function = new IrFunction(name);
 	}
 
-	private void write(String str) {
-		if (str.isEmpty()) {
-			output += "\n";
-			return;
-		}
-
-		output += str + "\n";
+	public boolean enabled(String pass) {
+		return modules.generator.passManager.enabled(pass);
 	}
 
 	public void add(String instruction) {
-		for (int i = 0; i < indent; i++) {
-			instruction = "\t" + instruction;
-		}
-
-		instructions.add(instruction);
+		function.instructions.add(Instruction.parse(indent, instruction));
 	}
 
 	public Identifier addInvoke(Identifier ident, List<ExprContext> exprs, ErrorLoc loc) {
-		var fullIdent = ident;
-		if (!modules.funcGatherer.exists(fullIdent)) {
-			fullIdent = null;
-			for (var namespace : modules.generator.usings) {
-				var newIdent = new Identifier(namespace, ident);
-				if (modules.funcGatherer.exists(newIdent)) {
-					fullIdent = newIdent;
-					break;
-				}
-			}
-		}
+		return addInvoke(ident, exprs, loc, null);
+	}
+
+	// `entryLabel` is given for calls that are the last thing the function does. When the function calls
+	// itself, the arguments are passed the same way, but it jumps back to the label instead of making a new frame.
+	public Identifier addInvoke(Identifier ident, List<ExprContext> exprs, ErrorLoc loc, String entryLabel) {
+		var fullIdent = resolveFunction(ident);
 
 		// Check for errors
 		if (ident.equalsStr("main")) {
@@ -132,6 +131,11 @@ public class Codeblock {
 			return fullIdent;
 		}
 
+		boolean self = entryLabel != null && isSelf(fullIdent);
+		if (!self && Inliner.tryInline(this, fullIdent, exprs, loc)) {
+			return fullIdent;
+		}
+
 		// Push all of the arguments
 		for (int i = 0; i < exprs.size(); i++) {
 			var t = ExprEvaluator.eval(this, exprs.get(i));
@@ -152,17 +156,42 @@ public class Codeblock {
 			add("pop " + Utils.ARG_REGS[i]);
 		}
 
-		add("call f_" + fullIdent.get());
+		if (self) {
+			add("jmp ." + entryLabel);
+			Profiler.tally("tail calls", 1);
+		} else {
+			add("call f_" + fullIdent.get());
+		}
 		return fullIdent;
 	}
 
+	// The function with that name, also looking in the namespaces from `using`. Null if there is none.
+	public Identifier resolveFunction(Identifier ident) {
+		if (modules.funcGatherer.exists(ident)) {
+			return ident;
+		}
+
+		for (var namespace : modules.generator.usings) {
+			var newIdent = new Identifier(namespace, ident);
+			if (modules.funcGatherer.exists(newIdent)) {
+				return newIdent;
+			}
+		}
+
+		return null;
+	}
+
+	public boolean isSelf(Identifier function) {
+		return function != null && this.function.name.equals("f_" + function.get());
+	}
+
 	public void addReturn() {
 		startReturn();
 		endReturn();
 	}
 
 	public void startReturn() {
-		add("freturn");
+		function.instructions.add(new Instruction(Instruction.Kind.RETURN, indent));
 	}
 
 	public void endReturn() {
@@ -199,12 +228,42 @@ public class Codeblock {
 	public void varCreate(String name, ScopeType type) {
 		int id = localVariableNext++;
 		localVariables.put(name, new VariableInfo(id, currentScope, type));
-		add("vlist_set " + id);
+		function.instructions.add(Instruction.store(indent, id));
+	}
+
+	// The variable stays known at compile time, so reading it is the same as using the value
+	public void varCreateConst(String name, ScopeType type, ConstFolder.Value value) {
+		int id = localVariableNext++;
+		var info = new VariableInfo(id, currentScope, type);
+		info.value = value;
+		localVariables.put(name, info);
+	}
+
+	// A slot for the value in `rdi` that no name refers to yet
+	public VariableInfo varCreateHidden(ScopeType type) {
+		var info = new VariableInfo(localVariableNext++, currentScope, type);
+		function.instructions.add(Instruction.store(indent, info.id));
+		return info;
+	}
+
+	// Returns the variables that were visible before
+	public HashMap<String, VariableInfo> swapVariables(HashMap<String, VariableInfo> variables) {
+		var old = localVariables;
+		localVariables = variables;
+		return old;
+	}
+
+	public boolean varIsConstCandidate(String name) {
+		return !reassigned.contains(name);
+	}
+
+	public ConstFolder.Value varValue(String name) {
+		return localVariables.get(name).value;
 	}
 
 	public void varAssign(String name) {
 		int id = localVariables.get(name).id;
-		add("vlist_set " + id);
+		function.instructions.add(Instruction.store(indent, id));
 	}
 
 	public int varId(String name) {
@@ -216,8 +275,16 @@ public class Codeblock {
 	}
 
 	public void varGet(String name) {
-		int id = localVariables.get(name).id;
-		add("vlist_get rdi, " + id);
+		varGet(localVariables.get(name));
+	}
+
+	public void varGet(VariableInfo info) {
+		if (info.value != null) {
+			ConstFolder.emit(this, info.value);
+			return;
+		}
+
+		function.instructions.add(Instruction.load(indent, info.id));
 	}
 
 	public Set<String> allVarNames() {
@@ -281,15 +348,24 @@ public class Codeblock {
 		localVariables.entrySet().removeIf(kv -> kv.getValue().scope > currentScope);
 	}
 
-	@Override
-	public String toString() {
-		write("\tfstart " + localVariableNext * 8);
+	public int instructionCount() {
+		return function.instructions.size();
+	}
 
-		// Write the actual code
-		for (var instruction : instructions) {
-			write(instruction);
-		}
+	// Inline assembly can access any variable through `$name$` and was written with every
+	// register except the temporary ones being free to use
+	public void addAssembly(String asm) {
+		function.hasAssembly = true;
+		function.instructions.add(Instruction.asm(indent, ";@ASM_START"));
+		function.instructions.add(Instruction.asm(indent, asm));
+		function.instructions.add(Instruction.asm(indent, ";@ASM_END"));
+	}
+
+	// Runs the passes over the function and writes it straight into `out`
+	public void writeTo(PrintWriter out, PassManager passManager) {
+		function.frameSize = localVariableNext * 8;
+		passManager.run(function, modules.task.source);
 
-		return output;
+		FasmEmitter.emit(function, out);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,358 @@
+package com.scopelang.fasm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.regex.Pattern;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.apache.commons.text.StringEscapeUtils;
+
+import com.scopelang.Identifier;
+import com.scopelang.ScopeBaseListener;
+import com.scopelang.ScopeType;
+import com.scopelang.Utils;
+import com.scopelang.ScopeParser.*;
+
+// Evaluates expressions made of literals, constants and locals that never change at compile time
+public final class ConstFolder {
+	public static class Value {
+		public ScopeType type;
+		// The value of an `int` or `bool`, or the bits of a `dec`
+		public long bits;
+		// The characters of a `str`, with its escapes already processed
+		public String text;
+
+		public Value(ScopeType type, long bits) {
+			this.type = type;
+			this.bits = bits;
+		}
+
+		public Value(String text) {
+			type = ScopeType.STR;
+			this.text = text;
+		}
+
+		public double dec() {
+			return Double.longBitsToDouble(bits);
+		}
+
+		// How it is written in metadata, strings are not shared between files
+		public String toMetadata() {
+			if (type.equals(ScopeType.DEC)) {
+				return "0x" + Long.toHexString(bits);
+			}
+
+			return text == null ? Long.toString(bits) : null;
+		}
+
+		public static Value fromMetadata(ScopeType type, String text) {
+			if (type.equals(ScopeType.DEC)) {
+				return new Value(type, Long.parseUnsignedLong(text.substring(2), 16));
+			} else if (type.equals(ScopeType.INT) || type.equals(ScopeType.BOOL)) {
+				return new Value(type, Long.parseLong(text));
+			}
+
+			return null;
+		}
+	}
+
+	// Stands for "tried, but not known at compile time" in the cache
+	private static final Value UNKNOWN = new Value(null, 0);
+
+	private static final Pattern ASM_VARIABLE = Pattern.compile("\\$(\\w+)\\$");
+
+	private ConstFolder() {
+	}
+
+	public static boolean enabled(Codeblock cb) {
+		return cb.enabled("fold");
+	}
+
+	public static Value fold(Codeblock cb, ExprContext ctx) {
+		if (!enabled(cb)) {
+			return null;
+		}
+
+		// Every level of an expression tries to fold what is below it
+		var cached = cb.folded.get(ctx);
+		if (cached == null) {
+			cached = foldExpr(cb, ctx);
+			cb.folded.put(ctx, cached == null ? UNKNOWN : cached);
+		}
+
+		return cached == UNKNOWN ? null : cached;
+	}
+
+	public static Value literal(LiteralsContext ctx) {
+		if (ctx.StringLiteral() != null) {
+			return new Value(Utils.processLiteral(ctx.StringLiteral().getText()));
+		} else if (ctx.IntegerLiteral() != null) {
+			try {
+				return new Value(ScopeType.INT, Long.parseLong(ctx.IntegerLiteral().getText().replaceAll("'", "")));
+			} catch (NumberFormatException e) {
+				// The evaluator reports it
+				return null;
+			}
+		} else if (ctx.DecimalLiteral() != null) {
+			String text = ctx.DecimalLiteral().getText();
+
+			// Same bits as the literal evaluator uses
+			long bits;
+			if (text.equals("infinity")) {
+				bits = 0x7FF0000000000000L;
+			} else if (text.equals("-infinity")) {
+				bits = 0xFFF0000000000000L;
+			} else if (text.equals("nan")) {
+				bits = 0xFFF8000000000000L;
+			} else {
+				bits = Double.doubleToRawLongBits(Double.parseDouble(text.replaceAll("'", "")));
+			}
+
+			return new Value(ScopeType.DEC, bits);
+		} else if (ctx.BooleanLiteral() != null) {
+			return new Value(ScopeType.BOOL, ctx.BooleanLiteral().getText().equals("true") ? 1 : 0);
+		}
+
+		return null;
+	}
+
+	public static ScopeType emit(Codeblock cb, Value value) {
+		if (value.text == null) {
+			cb.add("mov rdi, QWORD " + (value.type.equals(ScopeType.DEC)
+				? "0x" + Long.toHexString(value.bits)
+				: Long.toString(value.bits)));
+			return value.type;
+		}
+
+		if (value.text.isEmpty()) {
+			cb.add("lea rdi, [s_empty]");
+			return value.type;
+		}
+
+		// Strings made at compile time go with the rest of the string literals, which are
+		// kept the way they are written in the source
+		var literal = "\"" + StringEscapeUtils.escapeJson(value.text) + "\"";
+		var strings = cb.modules.tokenProcessor.extactedStrings;
+		var index = strings.get(literal);
+		if (index == null) {
+			index = strings.size();
+			strings.put(literal, index);
+		}
+
+		cb.add("lea rdi, [s_" + cb.modules.tokenProcessor.getMd5() + "_" + index + "]");
+		return value.type;
+	}
+
+	// Locals with these names can't be replaced by their value
+	public static HashSet<String> reassignedNames(ParserRuleContext ctx) {
+		var names = new HashSet<String>();
+		ParseTreeWalker.DEFAULT.walk(new ScopeBaseListener() {
+			@Override
+			public void enterAssign(AssignContext ctx) {
+				// Fields and elements change what the variable points to, not the variable
+				if (ctx.Access() == null && ctx.LeftBracket().isEmpty()) {
+					names.add(ctx.Identifier(0).getText());
+				}
+			}
+
+			@Override
+			public void enterOpAssign(OpAssignContext ctx) {
+				names.add(ctx.Identifier().getText());
+			}
+
+			@Override
+			public void enterAssembly(AssemblyContext ctx) {
+				var matcher = ASM_VARIABLE.matcher(ctx.AssemblyBlock().getText());
+				while (matcher.find()) {
+					names.add(matcher.group(1));
+				}
+			}
+		}, ctx);
+
+		return names;
+	}
+
+	private static Value foldExpr(Codeblock cb, ExprContext ctx) {
+		if (ctx.atom() != null) {
+			return foldAtom(cb, ctx.atom());
+		} else if (ctx.LeftParen() != null && ctx.RightParen() != null) {
+			return fold(cb, ctx.expr(0));
+		} else if (ctx.arrayInit() != null || ctx.objectInit() != null || ctx.IsKeyword() != null) {
+			// `is` compares addresses, which only exist at runtime
+			return null;
+		} else if (ctx.Access() != null) {
+			var left = fold(cb, ctx.expr(0));
+			if (left != null && left.text != null && ctx.Identifier().getText().equals("length")) {
+				return new Value(ScopeType.INT, left.text.getBytes(StandardCharsets.UTF_8).length);
+			}
+
+			return null;
+		} else if (ctx.LeftBracket() != null) {
+			return null;
+		}
+
+		// Unary
+		if (ctx.expr().size() == 1) {
+			var value = fold(cb, ctx.expr(0));
+			if (value == null) {
+				return null;
+			}
+
+			if (ctx.Cast() != null) {
+				return cast(value, ScopeType.fromTypeNameCtx(cb.modules, ctx.typeName()));
+			} else if (ctx.Not() != null) {
+				return value.type.equals(ScopeType.BOOL) ? new Value(ScopeType.BOOL, value.bits ^ 1) : null;
+			} else if (ctx.Sub() != null) {
+				if (value.type.equals(ScopeType.INT)) {
+					return new Value(ScopeType.INT, -value.bits);
+				} else if (value.type.equals(ScopeType.DEC)) {
+					// The same as the generated `0.0 - x`, so `-0.0` doesn't happen
+					return dec(0.0 - value.dec());
+				}
+			}
+
+			return null;
+		}
+
+		var left = fold(cb, ctx.expr(0));
+		if (left == null) {
+			return null;
+		}
+		var right = fold(cb, ctx.expr(1));
+		if (right == null || !left.type.equals(right.type)) {
+			return null;
+		}
+
+		if (left.type.equals(ScopeType.INT)) {
+			return foldInt(ctx, left.bits, right.bits);
+		} else if (left.type.equals(ScopeType.DEC)) {
+			return foldDec(ctx, left.dec(), right.dec());
+		} else if (left.type.equals(ScopeType.BOOL)) {
+			if (ctx.And() != null) {
+				return new Value(ScopeType.BOOL, left.bits & right.bits);
+			} else if (ctx.Or() != null) {
+				return new Value(ScopeType.BOOL, left.bits | right.bits);
+			}
+		} else if (left.type.equals(ScopeType.STR)) {
+			if (ctx.Add() != null) {
+				// Not the literals, `"\1" + "23"` would become the escape `"\123"`
+				return new Value(left.text + right.text);
+			} else if (ctx.Equals() != null) {
+				return bool(left.text.equals(right.text));
+			}
+		}
+
+		return null;
+	}
+
+	private static Value foldAtom(Codeblock cb, AtomContext ctx) {
+		if (ctx.literals() != null) {
+			return literal(ctx.literals());
+		} else if (ctx.LeftParen() != null || ctx.fullIdent() == null) {
+			return null;
+		}
+
+		var ident = new Identifier(ctx.fullIdent());
+		if (ident.isSimple() && cb.varExists(ident.toString())) {
+			return cb.varValue(ident.toString());
+		}
+
+		// Same lookup as the atom evaluator
+		var constants = cb.modules.constGatherer;
+		if (constants.exists(ident)) {
+			return constants.valueOf(ident);
+		}
+		for (var namespace : cb.modules.generator.usings) {
+			var newIdent = new Identifier(namespace, ident);
+			if (constants.exists(newIdent)) {
+				return constants.valueOf(newIdent);
+			}
+		}
+
+		return null;
+	}
+
+	private static Value foldInt(ExprContext ctx, long a, long b) {
+		if (ctx.Add() != null) {
+			return new Value(ScopeType.INT, a + b);
+		} else if (ctx.Sub() != null) {
+			return new Value(ScopeType.INT, a - b);
+		} else if (ctx.Mul() != null) {
+			return new Value(ScopeType.INT, a * b);
+		} else if (ctx.Div() != null || ctx.Mod() != null) {
+			// These trap at runtime, so leave them there
+			if (b == 0 || (a == Long.MIN_VALUE && b == -1)) {
+				return null;
+			}
+
+			return new Value(ScopeType.INT, ctx.Div() != null ? a / b : a % b);
+		} else if (ctx.Equals() != null) {
+			return bool(a == b);
+		} else if (ctx.NotEquals() != null) {
+			return bool(a != b);
+		} else if (ctx.GreaterThan() != null) {
+			return bool(a > b);
+		} else if (ctx.LessThan() != null) {
+			return bool(a < b);
+		} else if (ctx.GreaterThanEqual() != null) {
+			return bool(a >= b);
+		} else if (ctx.LessThanEqual() != null) {
+			return bool(a <= b);
+		}
+
+		return null;
+	}
+
+	// Java and SSE2 agree on all of these
+	private static Value foldDec(ExprContext ctx, double a, double b) {
+		if (ctx.Add() != null) {
+			return dec(a + b);
+		} else if (ctx.Sub() != null) {
+			return dec(a - b);
+		} else if (ctx.Mul() != null) {
+			return dec(a * b);
+		} else if (ctx.Div() != null) {
+			return b == 0 ? null : dec(a / b);
+		} else if (ctx.Equals() != null) {
+			return bool(a == b);
+		} else if (ctx.NotEquals() != null) {
+			return bool(a != b);
+		} else if (ctx.GreaterThan() != null) {
+			return bool(a > b);
+		} else if (ctx.LessThan() != null) {
+			return bool(a < b);
+		} else if (ctx.GreaterThanEqual() != null) {
+			return bool(a >= b);
+		} else if (ctx.LessThanEqual() != null) {
+			return bool(a <= b);
+		}
+
+		return null;
+	}
+
+	private static Value cast(Value value, ScopeType to) {
+		if (value.type.equals(ScopeType.INT) && to.equals(ScopeType.DEC)) {
+			return dec((double) value.bits);
+		} else if (value.type.equals(ScopeType.DEC) && to.equals(ScopeType.INT)) {
+			// `cvttsd2si` and Java disagree on NaN and values that don't fit
+			double d = value.dec();
+			if (Double.isNaN(d) || d >= 0x1p63 || d < -0x1p63) {
+				return null;
+			}
+
+			return new Value(ScopeType.INT, (long) d);
+		}
+
+		return null;
+	}
+
+	// Which NaN comes out differs between the two, so those stay at runtime
+	private static Value dec(double value) {
+		return Double.isNaN(value) ? null : new Value(ScopeType.DEC, Double.doubleToRawLongBits(value));
+	}
+
+	private static Value bool(boolean value) {
+		return new Value(ScopeType.BOOL, value ? 1 : 0);
+	}
+}
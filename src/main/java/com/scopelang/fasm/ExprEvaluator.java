@@ -101,10 +101,9 @@ public final class ExprEvaluator {
 		new OperatorInfo("[]", ScopeType.STR, ScopeType.INT, cb -> {
 			cb.add("add rdi, rsi");
 			cb.add("mov al, BYTE [rdi + 16]");
-			cb.add("mov rdi, QWORD [curpkg]");
-			cb.add("mov QWORD [rdi], 1");
+			cb.add("mov rdi, 1");
+			cb.add("call alloc");
 			cb.add("mov BYTE [rdi + 16], al");
-			cb.add("add QWORD [curpkg], 17");
 			return ScopeType.STR;
 		}),
 		new OperatorInfo("==", ScopeType.INT, ScopeType.INT, cb -> {
@@ -224,6 +223,14 @@ public final class ExprEvaluator {
 	}
 
 	public static ScopeType eval(Codeblock cb, ExprContext ctx) {
+		// Known at compile time, literals are already as cheap as it gets
+		if (ctx.atom() == null || ctx.atom().literals() == null) {
+			var value = ConstFolder.fold(cb, ctx);
+			if (value != null) {
+				return ConstFolder.emit(cb, value);
+			}
+		}
+
 		if (ctx.atom() != null) {
 			// Handle atoms (variables, literals)
 			return AtomEvaluator.eval(cb, ctx.atom());
@@ -243,12 +250,16 @@ public final class ExprEvaluator {
 			}
 
 			int byteLength = ctx.arrayInit().arguments().expr().size() * 8;
-			cb.add("push rcx");
-			cb.add("mov rcx, QWORD [curpkg]");
-			cb.add("push rcx");
-			cb.add("mov QWORD [rcx], " + byteLength);
-			cb.add("add rcx, 16");
+			// Allocated first, so the elements can allocate too. It stays on the stack while they
+			// are evaluated, since they can call functions that use any register.
+			cb.add("mov rdi, " + byteLength);
+			cb.add("call alloc");
+			if (type.generics[0].isReference()) {
+				cb.add("mov QWORD [rdi + 8], -1");
+			}
+			cb.add("push rdi");
 
+			int offset = 16;
 			for (var expr : ctx.arrayInit().arguments().expr()) {
 				var elemType = eval(cb, expr);
 
@@ -260,13 +271,12 @@ public final class ExprEvaluator {
 					return null;
 				}
 
-				cb.add("mov QWORD [rcx], rdi");
-				cb.add("add rcx, 8");
+				cb.add("mov rax, QWORD [rsp]");
+				cb.add("mov QWORD [rax + " + offset + "], rdi");
+				offset += 8;
 			}
 
-			cb.add("add QWORD [curpkg], " + (byteLength + 16));
 			cb.add("pop rdi");
-			cb.add("pop rcx");
 
 			return type;
 		} else if (ctx.objectInit() != null) {
@@ -288,12 +298,11 @@ public final class ExprEvaluator {
 					return null;
 				}
 
-				cb.add("mov rsi, rdi");
-				cb.add("mov rdi, QWORD [curpkg]");
-				cb.add("imul rsi, 8");
-				cb.add("mov QWORD [rdi], rsi");
-				cb.add("add rsi, 16");
-				cb.add("add QWORD [curpkg], rsi");
+				cb.add("imul rdi, 8");
+				cb.add("call alloc");
+				if (type.generics[0].isReference()) {
+					cb.add("mov QWORD [rdi + 8], -1");
+				}
 			} else {
 				var typeIdent = new Identifier(type.name);
 
@@ -386,6 +395,12 @@ public final class ExprEvaluator {
 				return ScopeType.INT;
 			} else if (left.name.equals("array") && access.equals("length")) {
 				cb.add("mov rdi, QWORD [rdi]");
+				if (cb.enabled("addressing")) {
+					// The size in bytes is never negative
+					cb.add("shr rdi, 3");
+					return ScopeType.INT;
+				}
+
 				cb.add("lea rax, [rdi + 7]");
 				cb.add("test rdi, rdi");
 				cb.add("cmovs rdi, rax");
@@ -451,6 +466,11 @@ public final class ExprEvaluator {
 
 		// Temporary for array
 		if (left.name.equals("array") && right.equals(ScopeType.INT)) {
+			if (cb.enabled("addressing")) {
+				cb.add("mov rdi, QWORD [rdi + rsi * 8 + 16]");
+				return left.generics[0];
+			}
+
 			cb.add("imul rsi, 8");
 			cb.add("add rsi, rdi");
 			cb.add("mov rdi, QWORD [rsi + 16]");
@@ -5,16 +5,19 @@ import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
-import org.apache.commons.io.IOUtils;
+import org.antlr.v4.runtime.tree.ParseTree;
 
 import com.scopelang.*;
 import com.scopelang.ScopeParser.*;
-import com.scopelang.project.CompileTask;
-import com.scopelang.project.CompileTask.Mode;
+import com.scopelang.ir.PassManager;
+import com.scopelang.project.BuildCache;
 
 public class FasmGenerator extends ScopeBaseListener {
 	public FilePair sourceFile;
+	private File outputFile;
 	private PrintWriter writer;
 	private boolean libraryMode;
 
@@ -26,20 +29,28 @@ public class FasmGenerator extends ScopeBaseListener {
 	public HashSet<Identifier> usings = new HashSet<>();
 
 	public Codeblock codeblock = null;
+	public PassManager passManager;
 
 	private boolean mainFound = false;
-	private String segRead = "";
 	private boolean isFuncVoid = false;
 	private boolean returnFound = false;
+	// Where a function that calls itself last jumps back to, after the prologue
+	private String entryLabel = null;
 
 	public FasmGenerator(FilePair sourceFile, File fileName, Modules modules, boolean libraryMode) {
 		this.sourceFile = sourceFile;
 		this.modules = modules;
 		this.libraryMode = libraryMode;
+		outputFile = fileName;
+		var cache = modules.task.scheduler.cache;
+		passManager = new PassManager(cache.optLevel, cache.passToggles, cache.disabledRules);
 
 		try {
-			writer = new PrintWriter(fileName);
-			md5 = Utils.hashOf(sourceFile.toFile());
+			writer = new PrintWriter(fileName, StandardCharsets.UTF_8);
+			if (cache.emitDiff) {
+				passManager.diff = new PrintWriter(diffFileOf(fileName), StandardCharsets.UTF_8);
+			}
+			md5 = modules.task.scheduler.cache.hashOf(sourceFile.toFile());
 		} catch (IOException e) {
 			Utils.error("Could not generate file.");
 			e.printStackTrace();
@@ -54,55 +65,28 @@ public class FasmGenerator extends ScopeBaseListener {
 		write("; Generated at " + date);
 		write("");
 
-		if (libraryMode) {
-			write(";@FILE,LIB," + md5 + "," + filePath);
-			writeImportMeta();
-			write("");
-			write(";@SEG_CODE");
-			writeObjects();
-			return;
-		}
-
-		write(";@FILE,ELF64," + md5 + "," + filePath);
-		try {
-			// Split header
-			InputStream in = getClass().getResourceAsStream("files/headers/ELF64.inc");
-			String[] file = IOUtils.toString(in, StandardCharsets.UTF_8).split(System.lineSeparator());
-
-			// Remove comments and write
-			for (String str : file) {
-				int commentIndex = str.indexOf(";");
-				if (commentIndex == -1) {
-					write(str);
-				} else {
-					String s = str.substring(0, commentIndex);
-					if (s.length() > 0) {
-						write(s);
-					}
-				}
-			}
+		write(";@FILE," + (libraryMode ? "LIB" : "MAIN") + "," + md5 + "," + filePath);
+		write(";@BUILD," + BuildCache.buildId() + "," + modules.task.scheduler.cache.settingsOf(sourceFile));
+		writeImportMeta();
+		write("");
+		write(";@SEG_CODE");
+		writeObjects();
 
-			// Write padding
-			write("");
-		} catch (IOException e) {
-			Utils.error("Could not insert header.");
-			e.printStackTrace();
-			Utils.forceExit();
+		// The linker puts the code of all imports between the objects and functions
+		if (!libraryMode) {
+			write(";@SEG_FUNCS");
 		}
-
-		// Keep in mind we return if we are in library mode
-		writeObjects();
-		writeImports();
 	}
 
 	public void finishGen() {
-		if (!libraryMode) {
-			write("segment readable");
-		} else {
-			write(";@SEG_READ");
-		}
+		write(";@SEG_READ");
 		write("");
 		writeStrings();
+
+		// Same for the read segment of all imports
+		if (!libraryMode) {
+			write(";@SEG_CONSTS");
+		}
 		writeConsts();
 
 		if (!mainFound && !libraryMode) {
@@ -129,27 +113,15 @@ public class FasmGenerator extends ScopeBaseListener {
 	}
 
 	private void writeImportMeta() {
+		// Importers only depend on the interface, so that is what gets recorded
 		for (var filePair : modules.importManager.getAll()) {
-			var hash = Utils.hashOf(filePair.toFile());
-			write(";@IMPORT," + hash + "," + filePair.file.getPath());
-		}
-	}
-
-	private void writeImports() {
-		for (var source : modules.globalImports) {
-			var file = CompileTask.convertSourceToCompiled(source, Mode.IMPORT).toFile();
-
-			String text = Utils.readFile(file);
-
-			// Append to constants
-			segRead += text.substring(text.indexOf(";@SEG_READ") + 10, text.length()).trim() + "\n";
-
-			// Get the section of code
-			int start = text.indexOf(";@SEG_CODE") + 10;
-			int end = text.indexOf(";@SEG_READ");
-			text = text.substring(start, end);
-
-			write(text);
+			var hash = modules.task.scheduler.analyzerOf(filePair).interfaceHash;
+			var library = modules.importManager.libraryOf(filePair);
+			if (library == null) {
+				write(";@IMPORT," + hash + "," + filePair.file.getPath());
+			} else {
+				write(";@LIB_IMPORT," + hash + "," + library + "," + filePair.file.getPath());
+			}
 		}
 	}
 
@@ -162,29 +134,49 @@ public class FasmGenerator extends ScopeBaseListener {
 			String name = "s_" + md5 + "_" + entry.getValue();
 			String str = Utils.processLiteral(entry.getKey());
 
-			String bytes = "";
 			var byteArr = str.getBytes(StandardCharsets.UTF_8);
-			for (byte b : byteArr) {
-				bytes += (int) b + ", ";
+			var bytes = new StringBuilder(byteArr.length * 5 + 4);
+			bytes.append("\tdb ");
+			for (int i = 0; i < byteArr.length; i++) {
+				if (i != 0) {
+					bytes.append(", ");
+				}
+				bytes.append((int) byteArr[i]);
 			}
-			bytes = bytes.substring(0, bytes.length() - 2);
 
 			write(name + " dq " + byteArr.length + ", 0");
-			write("\tdb " + bytes);
+			write(bytes.toString());
 		}
-
-		write(segRead);
 	}
 
 	private void writeConsts() {
 		for (var constant : modules.constGatherer.getAllValues()) {
 			String name = "c_" + constant.getKey().get();
+			// Importers can fold the value too, if it is known
+			var value = passManager.enabled("fold") ? modules.constGatherer.valueOf(constant.getKey()) : null;
+			String known = value == null ? null : value.toMetadata();
 			write(";@CONST," + constant.getKey().get() + "," +
-				constant.getValue().type.toString());
+				constant.getValue().type.toString() + (known == null ? "" : "," + known));
 			write(name + " " + constant.getValue().output);
 		}
 	}
 
+	// The type word of an object, for the collector: a bit for every field with a pointer
+	private static long pointerFields(List<ScopeType> fieldTypes) {
+		if (fieldTypes.size() > 31) {
+			return -1;
+		}
+
+		long bits = 0;
+		for (int i = 0; i < fieldTypes.size(); i++) {
+			if (fieldTypes.get(i).isReference()) {
+				bits |= 1L << i;
+			}
+		}
+
+		return bits;
+	}
+
 	private void writeObjects() {
 		for (var object : modules.objectGatherer.getAllValues()) {
 			// Write metadata
@@ -203,13 +195,17 @@ public class FasmGenerator extends ScopeBaseListener {
 			// Write init code
 
 			write("new_" + object.getKey().get() + ":");
-			codeblock = new Codeblock(modules);
+			codeblock = new Codeblock(modules, "new_" + object.getKey().get());
 
 			codeblock.add("push rdx");
-			codeblock.add("mov rdx, QWORD [curpkg]");
+			codeblock.add("mov rdi, " + fieldCount * 8);
+			codeblock.add("call alloc");
+			codeblock.add("mov rdx, rdi");
+			long pointers = pointerFields(object.getValue().fieldTypes);
+			if (pointers != 0) {
+				codeblock.add("mov QWORD [rdx + 8], " + pointers);
+			}
 			codeblock.add("push rdx");
-			codeblock.add("mov QWORD [rdx], " + fieldCount * 8);
-			codeblock.add("add QWORD [curpkg], " + (fieldCount * 8 + 16));
 
 			int add = 16;
 			for (int i = 0; i < object.getValue().defaultValues.size(); i++) {
@@ -223,7 +219,8 @@ public class FasmGenerator extends ScopeBaseListener {
 			codeblock.add("pop rdx");
 			codeblock.addReturn();
 
-			write(codeblock.toString());
+			codeblock.writeTo(writer, passManager);
+			write("");
 			codeblock = null;
 		}
 	}
@@ -240,6 +237,25 @@ public class FasmGenerator extends ScopeBaseListener {
 	private void finish() {
 		writer.flush();
 		writer.close();
+		if (passManager.diff != null) {
+			passManager.diff.close();
+		}
+	}
+
+	public void abort() {
+		if (writer != null) {
+			writer.close();
+		}
+		outputFile.delete();
+
+		if (passManager.diff != null) {
+			passManager.diff.close();
+			diffFileOf(outputFile).delete();
+		}
+	}
+
+	private static File diffFileOf(File fileName) {
+		return new File(fileName.getPath() + ".diff");
 	}
 
 	@Override
@@ -280,13 +296,20 @@ public class FasmGenerator extends ScopeBaseListener {
 
 		// Write function header
 		write(meta);
+		var funcs = modules.funcGatherer;
+		if (passManager.enabled("inline") && funcs.exists(ident) && funcs.inlineTextOf(ident) != null) {
+			// So files that import this one can inline it too
+			write(";@INLINE," + ident.get() + "," + funcs.inlineTextOf(ident) + ","
+				+ String.join(",", funcs.paramNamesOf(ident)));
+		}
 		write("f_" + ident.get() + ":");
 		if (ident.equalsStr("main")) {
 			mainFound = true;
 			write("\tcall init");
 		}
 
-		codeblock = new Codeblock(modules);
+		codeblock = new Codeblock(modules, "f_" + ident.get());
+		codeblock.reassigned = ConstFolder.reassignedNames(ctx);
 
 		// Error if there are too many parameters
 		var params = ctx.parameters().parameter();
@@ -297,6 +320,13 @@ public class FasmGenerator extends ScopeBaseListener {
 			errored = true;
 		}
 
+		// Only kept if there is a tail call to jump back from
+		entryLabel = null;
+		if (passManager.enabled("tailcall")) {
+			entryLabel = codeblock.nextLabelName();
+			codeblock.add("." + entryLabel + ":");
+		}
+
 		// Set arguments as local variables
 		for (int i = 0; i < params.size(); i++) {
 			var param = params.get(i);
@@ -355,7 +385,10 @@ public class FasmGenerator extends ScopeBaseListener {
 		}
 
 		// Write in the codeblock
-		write(codeblock.toString());
+		Profiler.count("codeblock " + ctx.Identifier().getText(), sourceFile, "instructions",
+			codeblock.instructionCount());
+		codeblock.writeTo(writer, passManager);
+		write("");
 		codeblock = null;
 	}
 
@@ -368,11 +401,19 @@ public class FasmGenerator extends ScopeBaseListener {
 			return;
 		}
 
-		// Get value and type
-		var exprType = ExprEvaluator.eval(codeblock, ctx.expr());
 		var type = ScopeType.fromTypeNameCtx(modules,
 			ctx.typeName());
 
+		// Never changes, so every use can be replaced by the value instead
+		var value = codeblock.varIsConstCandidate(ident) ? ConstFolder.fold(codeblock, ctx.expr()) : null;
+		if (value != null && value.type.equals(type)) {
+			codeblock.varCreateConst(ident, type, value);
+			return;
+		}
+
+		// Get value and type
+		var exprType = ExprEvaluator.eval(codeblock, ctx.expr());
+
 		// Discard if error
 		if (exprType == null) {
 			return;
@@ -498,12 +539,19 @@ public class FasmGenerator extends ScopeBaseListener {
 
 			for (int i = 0; i < ctx.LeftBracket().size(); i++) {
 				codeblock.add("pop rsi");
-				codeblock.add("imul rsi, 8");
+
+				// The index can be scaled by the address itself
+				String element = "[rdi + rsi + 16]";
+				if (codeblock.enabled("addressing")) {
+					element = "[rdi + rsi * 8 + 16]";
+				} else {
+					codeblock.add("imul rsi, 8");
+				}
 
 				if (i >= ctx.LeftBracket().size() - 1) {
-					codeblock.add("lea rsi, [rdi + rsi + 16]");
+					codeblock.add("lea rsi, " + element);
 				} else {
-					codeblock.add("mov rdi, QWORD [rdi + rsi + 16]");
+					codeblock.add("mov rdi, QWORD " + element);
 				}
 			}
 
@@ -533,7 +581,11 @@ public class FasmGenerator extends ScopeBaseListener {
 		Identifier ident = new Identifier(ctx.fullIdent());
 		if (ident.equalsStr("print")) {
 			var t = ExprEvaluator.eval(codeblock, ctx.arguments().expr(0));
-			if (!t.equals(ScopeType.STR)) {
+			if (t == null) {
+				// Already reported
+				errored = true;
+				return;
+			} else if (!t.equals(ScopeType.STR)) {
 				Utils.error(modules.locationOf(ctx.start),
 					"Function `print` does not have an appropiate parameter list `" + t + "`.",
 					"Try changing the parameter types to `str`.");
@@ -541,11 +593,60 @@ public class FasmGenerator extends ScopeBaseListener {
 				return;
 			}
 			codeblock.add("call print");
+		} else if (ident.equalsStr("flush")) {
+			// Writes what `print` buffered. Faults flush too, but a program that is killed
+			// (SIGKILL, SIGTERM) loses what wasn't written yet.
+			if (ctx.arguments().expr().size() != 0) {
+				Utils.error(modules.locationOf(ctx.start),
+					"Function `flush` does not take any arguments.",
+					"Try calling it like so:",
+					"flush();");
+				errored = true;
+				return;
+			}
+			codeblock.add("call flush");
 		} else {
-			codeblock.addInvoke(ident, ctx.arguments().expr(), modules.locationOf(ctx.start));
+			codeblock.addInvoke(ident, ctx.arguments().expr(), modules.locationOf(ctx.start),
+				isTailCall(ctx) ? entryLabel : null);
 		}
 	}
 
+	// The last thing a void function does: its last statement, or the one right before a `ret`
+	private boolean isTailCall(InvokeContext ctx) {
+		if (!isFuncVoid || entryLabel == null) {
+			return false;
+		}
+
+		var statement = ctx.getParent();
+		var code = statement.getParent();
+		int next = code.children.indexOf(statement) + 1;
+		if (next < code.getChildCount()) {
+			var nextStatement = code.getChild(next);
+			return nextStatement instanceof InnerStatementContext
+				&& ((InnerStatementContext) nextStatement).return_() != null;
+		}
+
+		return code.getParent().getParent() instanceof FunctionContext;
+	}
+
+	// `ret` of a call to the function itself
+	private AtomContext selfTailCall(ExprContext ctx) {
+		if (entryLabel == null) {
+			return null;
+		} else if (ctx.atom() == null && ctx.LeftParen() != null && ctx.RightParen() != null) {
+			return selfTailCall(ctx.expr(0));
+		}
+
+		var atom = ctx.atom();
+		if (atom == null || atom.LeftParen() == null
+			|| !codeblock.isSelf(codeblock.resolveFunction(new Identifier(atom.fullIdent())))) {
+
+			return null;
+		}
+
+		return atom;
+	}
+
 	@Override
 	public void exitReturn(ReturnContext ctx) {
 		if (isFuncVoid && ctx.expr() != null) {
@@ -565,7 +666,14 @@ public class FasmGenerator extends ScopeBaseListener {
 		if (!isFuncVoid) {
 			returnFound = true;
 
-			ExprEvaluator.eval(codeblock, ctx.expr());
+			// Jumps instead, so the return after it is never reached
+			var call = selfTailCall(ctx.expr());
+			if (call != null) {
+				codeblock.addInvoke(new Identifier(call.fullIdent()), call.arguments().expr(),
+					modules.locationOf(call.start), entryLabel);
+			} else {
+				ExprEvaluator.eval(codeblock, ctx.expr());
+			}
 		}
 
 		codeblock.addReturn();
@@ -582,9 +690,7 @@ public class FasmGenerator extends ScopeBaseListener {
 		label.elseOrEndLabel = codeblock.nextLabelName();
 		label.endLabel = label.elseOrEndLabel;
 
-		ExprEvaluator.eval(codeblock, ctx.expr());
-		codeblock.add("cmp rdi, 0");
-		codeblock.add("je ." + label.elseOrEndLabel);
+		BranchEvaluator.eval(codeblock, ctx.expr(), label.elseOrEndLabel, false);
 		codeblock.indent++;
 
 		codeblock.pushLabelInfo(label);
@@ -631,9 +737,7 @@ public class FasmGenerator extends ScopeBaseListener {
 		codeblock.add("." + label.conditionLabel + ":");
 		codeblock.indent++;
 
-		ExprEvaluator.eval(codeblock, ctx.expr());
-		codeblock.add("cmp rdi, 1");
-		codeblock.add("je ." + label.startLabel);
+		BranchEvaluator.eval(codeblock, ctx.expr(), label.startLabel, true);
 		codeblock.indent--;
 		codeblock.add("." + label.breakLabel + ":");
 	}
@@ -670,6 +774,18 @@ public class FasmGenerator extends ScopeBaseListener {
 
 		// Add ASM
 		codeblock.varCreate(ident, type);
+
+		// An end or step that the loop can't change only has to be evaluated once
+		if (codeblock.enabled("hoist")) {
+			var changed = ConstFolder.reassignedNames(ctx.codeblock());
+			changed.add(ident);
+
+			label.end = hoist(ctx.expr(1), changed);
+			if (ctx.expr().size() >= 3) {
+				label.step = hoist(ctx.expr(2), changed);
+			}
+		}
+
 		codeblock.add("jmp ." + label.conditionLabel);
 		codeblock.add("." + label.startLabel + ":");
 		codeblock.indent++;
@@ -691,13 +807,13 @@ public class FasmGenerator extends ScopeBaseListener {
 		// Set up the plus
 		if (type.equals(ScopeType.INT) && ctx.expr().size() <= 2) {
 			// Optimized increment for integers
-			codeblock.add("vlist_get rdi, " + codeblock.varId(ident));
+			codeblock.varGet(ident);
 			codeblock.add("inc rdi");
 		} else {
 			codeblock.varGet(ident);
 			codeblock.add("push rdi");
 			if (ctx.expr().size() >= 3) {
-				var stepType = ExprEvaluator.eval(codeblock, ctx.expr(2));
+				var stepType = evalOrGet(ctx.expr(2), label.step);
 				codeblock.add("pop rsi");
 
 				if (!stepType.equals(type)) {
@@ -736,7 +852,7 @@ public class FasmGenerator extends ScopeBaseListener {
 		codeblock.indent++;
 
 		// Variable
-		var endType = ExprEvaluator.eval(codeblock, ctx.expr(1));
+		var endType = evalOrGet(ctx.expr(1), label.end);
 		codeblock.add("push rdi");
 
 		// Expr
@@ -752,7 +868,7 @@ public class FasmGenerator extends ScopeBaseListener {
 		}
 
 		// Look for the less than operator
-		ScopeType result = ExprEvaluator.useOperator("<", type, type, codeblock);
+		ScopeType result = BranchEvaluator.useCondition(codeblock, "<", type, type, label.startLabel, true);
 
 		// Error
 		if (result == null) {
@@ -763,8 +879,6 @@ public class FasmGenerator extends ScopeBaseListener {
 			return;
 		}
 
-		codeblock.add("cmp rdi, 1");
-		codeblock.add("je ." + label.startLabel);
 		codeblock.indent--;
 
 		codeblock.add("." + label.breakLabel + ":");
@@ -772,6 +886,56 @@ public class FasmGenerator extends ScopeBaseListener {
 		codeblock.indent--;
 	}
 
+
+	// Evaluated into a slot before the loop, or null if it has to be evaluated every time
+	private Codeblock.VariableInfo hoist(ExprContext ctx, Set<String> changed) {
+		if (ConstFolder.fold(codeblock, ctx) != null || !isInvariant(ctx, changed)) {
+			return null;
+		}
+
+		var type = ExprEvaluator.eval(codeblock, ctx);
+		return type == null ? null : codeblock.varCreateHidden(type);
+	}
+
+	private ScopeType evalOrGet(ExprContext ctx, Codeblock.VariableInfo hoisted) {
+		if (hoisted == null) {
+			return ExprEvaluator.eval(codeblock, ctx);
+		}
+
+		codeblock.varGet(hoisted);
+		return hoisted.type;
+	}
+
+	// Has the same value every time it is evaluated, as long as none of the `changed` locals change.
+	// Elements and fields can be changed by anything, but the length of an array or string can't.
+	// Nothing that can trap either, since the step is then evaluated even if the loop never runs.
+	private static boolean isInvariant(ParseTree tree, Set<String> changed) {
+		if (tree instanceof AtomContext) {
+			var atom = (AtomContext) tree;
+			if (atom.LeftParen() != null) {
+				return false;
+			} else if (atom.fullIdent() != null && changed.contains(atom.fullIdent().getText())) {
+				return false;
+			}
+		} else if (tree instanceof ArrayInitContext || tree instanceof ObjectInitContext) {
+			return false;
+		} else if (tree instanceof ExprContext) {
+			var expr = (ExprContext) tree;
+			if (expr.Div() != null || expr.Mod() != null || expr.LeftBracket() != null) {
+				return false;
+			} else if (expr.Access() != null && !expr.Identifier().getText().equals("length")) {
+				return false;
+			}
+		}
+
+		for (int i = 0; i < tree.getChildCount(); i++) {
+			if (!isInvariant(tree.getChild(i), changed)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
 	@Override
 	public void exitOpAssign(OpAssignContext ctx) {
 		String ident = ctx.Identifier().getText();
@@ -831,11 +995,6 @@ public class FasmGenerator extends ScopeBaseListener {
 		codeblock.varAssign(ident);
 	}
 
-	@Override
-	public void enterAssembly(AssemblyContext ctx) {
-		codeblock.add(";@ASM_START");
-	}
-
 	@Override
 	public void exitAssembly(AssemblyContext ctx) {
 		// Get the asm and remove the start
@@ -852,8 +1011,7 @@ public class FasmGenerator extends ScopeBaseListener {
 		}
 
 		// Add it all
-		codeblock.add(asm);
-		codeblock.add(";@ASM_END");
+		codeblock.addAssembly(asm);
 	}
 
 	@Override
@@ -0,0 +1,165 @@
+package com.scopelang.fasm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+import com.scopelang.FilePair;
+import com.scopelang.Profiler;
+import com.scopelang.Utils;
+import com.scopelang.ir.PassManager;
+import com.scopelang.metadata.FasmAnalyzer;
+import com.scopelang.project.CompileTask;
+import com.scopelang.project.CompileTask.Mode;
+import com.scopelang.project.ImportScheduler;
+
+// Puts the main file and all of its imports together into one file for FASM
+public class FasmLinker {
+	private ImportScheduler scheduler;
+
+	public FasmLinker(ImportScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	// Returns false if the output was already the same (except for the time it was generated at)
+	public boolean link(FilePair source, FasmAnalyzer main, FilePair output) {
+		try (var phase = Profiler.begin("link", source)) {
+			return linkUnit(source, main, output);
+		}
+	}
+
+	private boolean linkUnit(FilePair source, FasmAnalyzer main, FilePair output) {
+		// Same order as they were found in when compiling
+		var imports = new ArrayList<FilePair>(scheduler.importsOf(source, main));
+		collectImports(new ArrayList<>(imports), imports);
+
+		String code = main.readCodeSegment();
+		String read = main.readReadSegment();
+		int funcs = code.indexOf(";@SEG_FUNCS");
+		int consts = read.indexOf(";@SEG_CONSTS");
+		if (funcs == -1 || consts == -1) {
+			Utils.error("`" + source.file.getPath() + "` was not compiled as a main file.",
+				"Try running `scope clean` and building again.");
+			Utils.forceExit();
+			return false;
+		}
+
+		var builder = new StringBuilder();
+		String date = DateTimeFormatter.ofPattern("yyyy/MM/dd hh:mm:ss a").format(LocalDateTime.now());
+		line(builder, "; Generated at " + date);
+		line(builder, "");
+		line(builder, ";@FILE,ELF64," + main.hash + "," + main.source);
+		writeHeader(builder);
+
+		// Objects, then the code of every import, then the functions
+		var graph = new SymbolGraph();
+		graph.addCode(code.subSequence(code.indexOf('\n') + 1, funcs));
+		var segRead = new StringBuilder();
+		for (var file : imports) {
+			var analyzer = FasmAnalyzer.of(CompileTask.convertSourceToCompiled(file, Mode.IMPORT));
+			graph.addCode(analyzer.readCodeSegment());
+			graph.addLine("");
+			segRead.append(analyzer.readReadSegment().trim()).append('\n');
+		}
+		graph.addCode(code.subSequence(code.indexOf('\n', funcs) + 1, code.length()));
+
+		// Strings, then the read segment of every import, then the constants
+		graph.addLine("segment readable");
+		graph.addLine("");
+		graph.addRead(read.substring(0, consts).stripLeading());
+		graph.addRead(segRead);
+		graph.addLine("");
+		graph.addRead(read.subSequence(read.indexOf('\n', consts) + 1, read.length()));
+
+		// Optimized builds leave out everything that `main` doesn't use, like most of a library
+		var cache = scheduler.cache;
+		var passes = new PassManager(cache.optLevel, cache.passToggles, cache.disabledRules);
+		int removed = graph.writeTo(builder, passes.enabled("strip"));
+		Profiler.tally("link unused symbols", removed);
+
+		var file = output.toFile();
+		try {
+			if (file.exists()) {
+				String old = Files.readString(file.toPath(), StandardCharsets.UTF_8);
+				if (CharSequence.compare(withoutFirstLine(old), withoutFirstLine(builder)) == 0) {
+					return false;
+				}
+			}
+
+			Files.writeString(file.toPath(), builder, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			Utils.error("Could not write `" + output.toFile().getPath() + "`.");
+			if (!Utils.disableLog) {
+				e.printStackTrace();
+			}
+			Utils.forceExit();
+		}
+
+		Utils.log("Linked `" + file.getPath() + "`.");
+		return true;
+	}
+
+	private static CharSequence withoutFirstLine(CharSequence text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == '\n') {
+				return text.subSequence(i + 1, text.length());
+			}
+		}
+
+		return text;
+	}
+
+	private void collectImports(List<FilePair> files, ArrayList<FilePair> all) {
+		for (var file : files) {
+			var newImports = new ArrayList<FilePair>();
+			for (var importFile : scheduler.importsOf(file, scheduler.analyzerOf(file))) {
+				if (all.contains(importFile)) {
+					continue;
+				}
+
+				newImports.add(importFile);
+				all.add(importFile);
+			}
+			collectImports(newImports, all);
+		}
+	}
+
+	private void writeHeader(StringBuilder builder) {
+		try {
+			// Split header
+			InputStream in = getClass().getResourceAsStream("files/headers/ELF64.inc");
+			String[] file = IOUtils.toString(in, StandardCharsets.UTF_8).split(System.lineSeparator());
+
+			// Remove comments and write
+			for (String str : file) {
+				int commentIndex = str.indexOf(";");
+				if (commentIndex == -1) {
+					line(builder, str);
+				} else {
+					String s = str.substring(0, commentIndex);
+					if (s.length() > 0) {
+						line(builder, s);
+					}
+				}
+			}
+
+			// Write padding
+			line(builder, "");
+		} catch (IOException e) {
+			Utils.error("Could not insert header.");
+			e.printStackTrace();
+			Utils.forceExit();
+		}
+	}
+
+	private static void line(StringBuilder builder, String str) {
+		builder.append(str).append(System.lineSeparator());
+	}
+}
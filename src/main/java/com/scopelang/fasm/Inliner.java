@@ -0,0 +1,166 @@
+package com.scopelang.fasm;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import com.scopelang.*;
+import com.scopelang.ScopeParser.*;
+import com.scopelang.error.ErrorLoc;
+
+// Calls to functions that only return an expression of their parameters are replaced by that expression.
+// The body has no calls, so inlining never recurses, and it is kept as text so `.scopelib` files can share it.
+public final class Inliner {
+	// Bigger bodies are only inlined with `inline`
+	private static final int MAX_NODES = 32;
+
+	private Inliner() {
+	}
+
+	// The returned expression if the function can be inlined, otherwise null
+	public static String bodyOf(FunctionContext ctx) {
+		String reason = whyNot(ctx);
+		if (reason != null) {
+			if (ctx.InlineKeyword() != null) {
+				Utils.warn("The function `" + ctx.Identifier().getText() + "` can't be inlined, " + reason + ".",
+					"Only functions that return an expression made of their parameters can be inlined.");
+			}
+
+			return null;
+		} else if (ctx.InlineKeyword() == null && Profiler.nodeCount(ctx.codeblock()) > MAX_NODES) {
+			return null;
+		}
+
+		var text = new StringBuilder();
+		appendTokens(text, returned(ctx));
+		return text.toString();
+	}
+
+	public static ExprContext parse(String body) {
+		var parser = new ScopeParser(new CommonTokenStream(new ScopeLexer(CharStreams.fromString(body))));
+		return parser.expr();
+	}
+
+	// Returns false if the call has to be made
+	public static boolean tryInline(Codeblock cb, Identifier ident, List<ExprContext> exprs, ErrorLoc loc) {
+		var gatherer = cb.modules.funcGatherer;
+		if (!cb.enabled("inline") || gatherer.inlineBodyOf(ident) == null) {
+			return false;
+		}
+
+		// Arguments are evaluated in order, the same as for a call
+		var names = gatherer.paramNamesOf(ident);
+		var params = new HashMap<String, Codeblock.VariableInfo>();
+		for (int i = 0; i < exprs.size(); i++) {
+			var value = ConstFolder.fold(cb, exprs.get(i));
+			ScopeType t;
+			Codeblock.VariableInfo info;
+			if (value != null) {
+				t = value.type;
+				info = new Codeblock.VariableInfo(-1, 0, t);
+				info.value = value;
+			} else {
+				t = ExprEvaluator.eval(cb, exprs.get(i));
+				info = cb.varCreateHidden(t);
+			}
+
+			var expected = gatherer.nthArgOf(ident, i);
+			if (!expected.equals(t)) {
+				Utils.error(loc, "Argument " + (i + 1) + " does not have the correct type of `" + expected + "`.",
+					"Try changing the argument type from `" + t + "` to `" + expected + "`.");
+				cb.errored = true;
+				return true;
+			}
+
+			params.put(names[i], info);
+		}
+
+		// The body only sees the parameters, and folds them on its own
+		var variables = cb.swapVariables(params);
+		var folded = cb.folded;
+		cb.folded = new HashMap<>();
+
+		var inlinedAt = cb.modules.inlinedAt;
+		if (gatherer.isImportedBody(ident)) {
+			cb.modules.inlinedAt = loc;
+		}
+
+		try {
+			ExprEvaluator.eval(cb, gatherer.inlineBodyOf(ident));
+		} finally {
+			cb.modules.inlinedAt = inlinedAt;
+		}
+
+		cb.swapVariables(variables);
+		cb.folded = folded;
+		return true;
+	}
+
+	private static void appendTokens(StringBuilder text, ParseTree tree) {
+		if (tree instanceof TerminalNode) {
+			if (text.length() > 0) {
+				text.append(" ");
+			}
+			text.append(tree.getText());
+		}
+
+		for (int i = 0; i < tree.getChildCount(); i++) {
+			appendTokens(text, tree.getChild(i));
+		}
+	}
+
+	private static ExprContext returned(FunctionContext ctx) {
+		var statement = ctx.codeblock().code().innerStatement(0);
+		return statement.return_().expr();
+	}
+
+	private static String whyNot(FunctionContext ctx) {
+		var code = ctx.codeblock() == null ? null : ctx.codeblock().code();
+		if (code == null) {
+			return "it has no body";
+		} else if (code.getChildCount() != 1 || code.innerStatement().size() != 1
+			|| code.innerStatement(0).return_() == null || code.innerStatement(0).return_().expr() == null) {
+
+			return "its body is more than a `ret` of a value";
+		}
+
+		var params = new HashSet<String>();
+		for (var param : ctx.parameters().parameter()) {
+			params.add(param.Identifier().getText());
+		}
+
+		return whyNot(returned(ctx), params);
+	}
+
+	private static String whyNot(ParseTree tree, HashSet<String> params) {
+		if (tree instanceof AtomContext) {
+			var atom = (AtomContext) tree;
+			if (atom.LeftParen() != null) {
+				return "it calls `" + atom.fullIdent().getText() + "`";
+			} else if (atom.literals() != null && atom.literals().StringLiteral() != null) {
+				// Strings are numbered per file
+				return "it uses a string literal";
+			} else if (atom.fullIdent() != null && !params.contains(atom.fullIdent().getText())) {
+				return "it uses `" + atom.fullIdent().getText() + "`, which isn't a parameter";
+			}
+		} else if (tree instanceof ArrayInitContext || tree instanceof ObjectInitContext) {
+			return "it allocates";
+		} else if (tree instanceof TypeNameContext && ((TypeNameContext) tree).primitiveType() == null) {
+			return "it casts to `" + tree.getText() + "`";
+		}
+
+		for (int i = 0; i < tree.getChildCount(); i++) {
+			var reason = whyNot(tree.getChild(i), params);
+			if (reason != null) {
+				return reason;
+			}
+		}
+
+		return null;
+	}
+}
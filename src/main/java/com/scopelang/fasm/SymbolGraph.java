@@ -0,0 +1,167 @@
+package com.scopelang.fasm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+// The linked file split up into the functions, object initializers, strings and constants it defines.
+// Only the ones that `f_main` can reach (through calls or any other use of their name) are written.
+public class SymbolGraph {
+	private static final Pattern NAME = Pattern.compile("[A-Za-z_$][\\w$]*");
+
+	private static class Piece {
+		public String symbol;
+		public StringBuilder text = new StringBuilder();
+		public boolean reached = false;
+
+		public Piece(String symbol) {
+			this.symbol = symbol;
+		}
+	}
+
+	// In the order they are written in, a piece without a symbol is always written
+	private ArrayList<Piece> pieces = new ArrayList<>();
+	// Defining a symbol twice stays an error for FASM to report, so both are kept
+	private HashMap<String, ArrayList<Piece>> symbols = new HashMap<>();
+
+	// A code segment, where every function and object initializer starts with its metadata
+	public void addCode(CharSequence text) {
+		add(text, false);
+	}
+
+	// A readable segment, where every constant starts with its metadata and every string with its name
+	public void addRead(CharSequence text) {
+		add(text, true);
+	}
+
+	public void addLine(String line) {
+		current().text.append(line).append(System.lineSeparator());
+	}
+
+	// Returns how many symbols weren't written
+	public int writeTo(StringBuilder builder, boolean onlyReachable) {
+		if (onlyReachable) {
+			mark();
+		}
+
+		int removed = 0;
+		for (var piece : pieces) {
+			if (!onlyReachable || piece.symbol == null || piece.reached) {
+				builder.append(piece.text);
+			} else {
+				removed++;
+			}
+		}
+
+		return removed;
+	}
+
+	private void add(CharSequence text, boolean read) {
+		var piece = current();
+
+		int start = 0;
+		while (start < text.length()) {
+			int end = indexOf(text, '\n', start, text.length());
+			int next = end == -1 ? text.length() : end + 1;
+			var line = text.subSequence(start, next).toString();
+
+			String symbol = symbolStartedBy(line, read);
+			if (symbol != null) {
+				piece = new Piece(symbol);
+				pieces.add(piece);
+				symbols.computeIfAbsent(symbol, k -> new ArrayList<>()).add(piece);
+			}
+			piece.text.append(line);
+
+			start = next;
+		}
+	}
+
+	private static String symbolStartedBy(String line, boolean read) {
+		if (!read && line.startsWith(";@FUNC,")) {
+			return "f_" + field(line, 7);
+		} else if (!read && line.startsWith(";@OBJ_START,")) {
+			return "new_" + field(line, 12);
+		} else if (read && line.startsWith(";@CONST,")) {
+			return "c_" + field(line, 8);
+		} else if (read && line.startsWith("s_")) {
+			return field(line, 0);
+		}
+
+		return null;
+	}
+
+	// Up to the next `,`, space or the end of the line
+	private static String field(String line, int start) {
+		int end = start;
+		while (end < line.length() && ",\r\n \t".indexOf(line.charAt(end)) == -1) {
+			end++;
+		}
+
+		return line.substring(start, end);
+	}
+
+	// The last piece, if it is one that is always written
+	private Piece current() {
+		if (pieces.isEmpty() || pieces.get(pieces.size() - 1).symbol != null) {
+			pieces.add(new Piece(null));
+		}
+
+		return pieces.get(pieces.size() - 1);
+	}
+
+	private void mark() {
+		var queue = new ArrayDeque<Piece>();
+		for (var piece : pieces) {
+			if (piece.symbol == null) {
+				queue.add(piece);
+			}
+		}
+		reach("f_main", queue);
+
+		while (!queue.isEmpty()) {
+			var text = queue.poll().text;
+			var matcher = NAME.matcher(text);
+
+			int start = 0;
+			while (start < text.length()) {
+				int end = indexOf(text, '\n', start, text.length());
+				end = end == -1 ? text.length() : end;
+
+				// Comments are metadata, and metadata doesn't use anything
+				int comment = indexOf(text, ';', start, end);
+				matcher.region(start, comment == -1 ? end : comment);
+				while (matcher.find()) {
+					reach(matcher.group(), queue);
+				}
+
+				start = end + 1;
+			}
+		}
+	}
+
+	private void reach(String symbol, ArrayDeque<Piece> queue) {
+		var definitions = symbols.get(symbol);
+		if (definitions == null) {
+			return;
+		}
+
+		for (var piece : definitions) {
+			if (!piece.reached) {
+				piece.reached = true;
+				queue.add(piece);
+			}
+		}
+	}
+
+	private static int indexOf(CharSequence text, char c, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (text.charAt(i) == c) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+}
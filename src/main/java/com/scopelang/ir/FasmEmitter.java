@@ -0,0 +1,58 @@
+package com.scopelang.ir;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+
+// The last step, turns a function into FASM text
+public final class FasmEmitter {
+	private FasmEmitter() {
+	}
+
+	public static void emit(IrFunction function, PrintWriter out) {
+		var saved = function.savedRegisters;
+
+		writeLine(out, 1, "fstart " + function.frameSize);
+		if (!saved.isEmpty()) {
+			writeLine(out, 1, "push " + String.join(", ", saved));
+		}
+
+		for (var instruction : function.instructions) {
+			switch (instruction.kind) {
+				case LOAD: {
+					var register = function.registers.get(instruction.slot);
+					writeLine(out, instruction.indent, register == null
+						? "vlist_get rdi, " + instruction.slot
+						: "mov rdi, " + register);
+					break;
+				}
+				case STORE: {
+					var register = function.registers.get(instruction.slot);
+					writeLine(out, instruction.indent, register == null
+						? "vlist_set " + instruction.slot
+						: "mov " + register + ", rdi");
+					break;
+				}
+				case RETURN:
+					if (!saved.isEmpty()) {
+						var reversed = new ArrayList<>(saved);
+						Collections.reverse(reversed);
+						writeLine(out, instruction.indent, "pop " + String.join(", ", reversed));
+					}
+					writeLine(out, instruction.indent, "freturn");
+					break;
+				default:
+					writeLine(out, instruction.indent, instruction.toString());
+					break;
+			}
+		}
+	}
+
+	private static void writeLine(PrintWriter out, int indent, String text) {
+		for (int i = 0; i < indent; i++) {
+			out.write('\t');
+		}
+		out.write(text);
+		out.write('\n');
+	}
+}
@@ -0,0 +1,153 @@
+package com.scopelang.ir;
+
+import java.util.ArrayList;
+
+// A single instruction of a function. Most are just an opcode with operands, local variable
+// accesses and returns stay symbolic until the emitter knows where everything lives.
+public class Instruction {
+	public enum Kind {
+		OP,
+		LABEL,
+		// Moves the local variable `slot` into/from `rdi`
+		LOAD,
+		STORE,
+		// Everything that has to happen before `ret`
+		RETURN,
+		// Inline assembly, which passes must leave alone
+		ASM
+	}
+
+	public Kind kind;
+	public int indent;
+	public String opcode = null;
+	public ArrayList<Operand> operands = new ArrayList<>();
+	public String text = null;
+	public int slot = -1;
+
+	public Instruction(Kind kind, int indent) {
+		this.kind = kind;
+		this.indent = indent;
+	}
+
+	public static Instruction op(int indent, String opcode, Operand... operands) {
+		var instruction = new Instruction(Kind.OP, indent);
+		instruction.opcode = opcode;
+		for (var operand : operands) {
+			instruction.operands.add(operand);
+		}
+
+		return instruction;
+	}
+
+	public static Instruction label(int indent, String name) {
+		var instruction = new Instruction(Kind.LABEL, indent);
+		instruction.text = name;
+		return instruction;
+	}
+
+	public static Instruction load(int indent, int slot) {
+		var instruction = new Instruction(Kind.LOAD, indent);
+		instruction.slot = slot;
+		return instruction;
+	}
+
+	public static Instruction store(int indent, int slot) {
+		var instruction = new Instruction(Kind.STORE, indent);
+		instruction.slot = slot;
+		return instruction;
+	}
+
+	public static Instruction asm(int indent, String text) {
+		var instruction = new Instruction(Kind.ASM, indent);
+		instruction.text = text;
+		return instruction;
+	}
+
+	// Reads a line the way the generator writes it, like `mov rdi, QWORD [rdx + 16]` or `.l0:`
+	public static Instruction parse(int indent, String line) {
+		line = line.trim();
+		if (line.startsWith(".") && line.endsWith(":")) {
+			return label(indent, line.substring(0, line.length() - 1));
+		}
+
+		var instruction = new Instruction(Kind.OP, indent);
+		int space = line.indexOf(' ');
+		if (space == -1) {
+			instruction.opcode = line;
+			return instruction;
+		}
+
+		instruction.opcode = line.substring(0, space);
+
+		// Commas inside of brackets don't separate operands
+		String rest = line.substring(space + 1);
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i < rest.length(); i++) {
+			char c = rest.charAt(i);
+			if (c == '[') {
+				depth++;
+			} else if (c == ']') {
+				depth--;
+			} else if (c == ',' && depth == 0) {
+				instruction.operands.add(Operand.parse(rest.substring(start, i)));
+				start = i + 1;
+			}
+		}
+		instruction.operands.add(Operand.parse(rest.substring(start)));
+
+		return instruction;
+	}
+
+	public boolean isOp(String name) {
+		return kind == Kind.OP && opcode.equals(name);
+	}
+
+	public boolean isJump() {
+		return kind == Kind.OP && opcode.startsWith("j");
+	}
+
+	public String jumpTarget() {
+		if (!isJump() || operands.size() != 1 || operands.get(0).kind != Operand.Kind.LABEL) {
+			return null;
+		}
+
+		return operands.get(0).text;
+	}
+
+	public Operand operand(int i) {
+		return operands.get(i);
+	}
+
+	@Override
+	public String toString() {
+		switch (kind) {
+			case LABEL:
+				return text + ":";
+			case LOAD:
+				return "load " + slot;
+			case STORE:
+				return "store " + slot;
+			case RETURN:
+				return "return";
+			case ASM:
+				return text;
+			default:
+				break;
+		}
+
+		if (operands.isEmpty()) {
+			return opcode;
+		}
+
+		var builder = new StringBuilder(opcode).append(' ');
+		for (int i = 0; i < operands.size(); i++) {
+			if (i != 0) {
+				builder.append(", ");
+			}
+			builder.append(operands.get(i).text);
+		}
+
+		return builder.toString();
+	}
+}
@@ -0,0 +1,23 @@
+package com.scopelang.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// The code of a function (or object initializer) between generating and writing it
+public class IrFunction {
+	public String name;
+	public ArrayList<Instruction> instructions = new ArrayList<>();
+
+	// Bytes of vlist the function uses
+	public int frameSize = 0;
+	public boolean hasAssembly = false;
+
+	// Where local variables live, everything that is not in here stays in the vlist
+	public HashMap<Integer, String> registers = new HashMap<>();
+	// Pushed after `fstart` and popped before `freturn`
+	public ArrayList<String> savedRegisters = new ArrayList<>();
+
+	public IrFunction(String name) {
+		this.name = name;
+	}
+}
@@ -0,0 +1,140 @@
+package com.scopelang.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Operand {
+	public enum Kind {
+		REGISTER,
+		IMMEDIATE,
+		MEMORY,
+		LABEL,
+		SYMBOL
+	}
+
+	public static final Set<String> REGISTERS = Set.of(
+		"rax", "rbx", "rcx", "rdx", "rsi", "rdi", "rbp", "rsp",
+		"r8", "r9", "r10", "r11", "r12", "r13", "r14", "r15",
+		"eax", "al", "cl", "dl", "bl",
+		"xmm0", "xmm1", "xmm2", "xmm3");
+
+	// The smaller registers that are a part of a bigger one
+	private static final Map<String, String> PARTS = Map.of(
+		"eax", "rax",
+		"al", "rax",
+		"cl", "rcx",
+		"dl", "rdx",
+		"bl", "rbx");
+	private static final ConcurrentHashMap<String, List<String>> NAMES = new ConcurrentHashMap<>();
+
+	public Kind kind;
+	public String text;
+
+	public Operand(Kind kind, String text) {
+		this.kind = kind;
+		this.text = text;
+	}
+
+	public static Operand parse(String text) {
+		text = text.trim();
+
+		Kind kind;
+		if (text.contains("[")) {
+			kind = Kind.MEMORY;
+		} else if (REGISTERS.contains(text)) {
+			kind = Kind.REGISTER;
+		} else if (text.startsWith(".")) {
+			kind = Kind.LABEL;
+		} else if (isNumber(text)) {
+			kind = Kind.IMMEDIATE;
+		} else {
+			kind = Kind.SYMBOL;
+		}
+
+		return new Operand(kind, text);
+	}
+
+	public static Operand register(String name) {
+		return new Operand(Kind.REGISTER, name);
+	}
+
+	public static Operand immediate(long value) {
+		return new Operand(Kind.IMMEDIATE, "QWORD " + value);
+	}
+
+	// All 64 bits of a general purpose register
+	public static boolean isFullRegister(String name) {
+		return REGISTERS.contains(name) && !PARTS.containsKey(name) && !name.startsWith("xmm");
+	}
+
+	// A register and the smaller ones that are a part of it, like `rax`, `eax` and `al`
+	public static List<String> namesOf(String register) {
+		return NAMES.computeIfAbsent(register, key -> {
+			var names = new ArrayList<String>();
+			names.add(key);
+			for (var part : PARTS.entrySet()) {
+				if (part.getValue().equals(key)) {
+					names.add(part.getKey());
+				}
+			}
+
+			return names;
+		});
+	}
+
+	// The name as a whole word, `rdi` is in `[rdi + 8]` but not in `f_birdie`
+	public boolean mentions(String name) {
+		for (int i = text.indexOf(name); i != -1; i = text.indexOf(name, i + 1)) {
+			int end = i + name.length();
+			if ((i == 0 || !isWordChar(text.charAt(i - 1)))
+				&& (end == text.length() || !isWordChar(text.charAt(end)))) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+
+	public boolean isRegister(String name) {
+		return kind == Kind.REGISTER && text.equals(name);
+	}
+
+	// `QWORD 5` and `-5` are both immediates, decimals like `QWORD 1.5` too
+	private static boolean isNumber(String text) {
+		if (text.startsWith("QWORD ")) {
+			text = text.substring(6).trim();
+		}
+		if (text.startsWith("-")) {
+			text = text.substring(1);
+		}
+
+		return !text.isEmpty() && Character.isDigit(text.charAt(0));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Operand)) {
+			return false;
+		}
+
+		var other = (Operand) obj;
+		return kind == other.kind && text.equals(other.text);
+	}
+
+	@Override
+	public int hashCode() {
+		return text.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+}
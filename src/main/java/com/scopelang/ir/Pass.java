@@ -0,0 +1,7 @@
+package com.scopelang.ir;
+
+public interface Pass {
+	String name();
+
+	void run(IrFunction function);
+}
@@ -0,0 +1,146 @@
+package com.scopelang.ir;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.scopelang.FilePair;
+import com.scopelang.Profiler;
+
+// Runs the passes that belong to an optimization level (`-O`) over every function
+public class PassManager {
+	public static final int MAX_LEVEL = 2;
+	// Nothing is optimized unless asked for with `-O`
+	public static final int DEFAULT_LEVEL = 0;
+
+	// Everything that `--pass` can turn on and off. The generator and the linker do some of these
+	// while they work, the others run over every function in this order.
+	public static final List<String> PASSES = List.of(
+		"fold",
+		"branch",
+		"inline",
+		"tailcall",
+		"hoist",
+		"addressing",
+		"regalloc",
+		"peephole",
+		"unreachable",
+		// The peephole rules and unreachable code again, now that jumps and labels are gone
+		"repeat",
+		"strip");
+
+	// The passes that are only on from `-O2`
+	private static final Set<String> LEVEL_2 = Set.of("repeat");
+
+	public int level;
+	private HashSet<String> enabled = new HashSet<>();
+	private ArrayList<Pass> passes = new ArrayList<>();
+
+	// Gets every function before and after each pass that changed it, if set
+	public PrintWriter diff = null;
+
+	// `toggles` are pass names with a `+` or `-` in front, to turn them on or off for this level
+	public PassManager(int level, Set<String> toggles, Set<String> disabledRules) {
+		this.level = level;
+
+		for (var pass : PASSES) {
+			if (level >= (LEVEL_2.contains(pass) ? 2 : 1)) {
+				enabled.add(pass);
+			}
+		}
+
+		for (var toggle : toggles) {
+			if (toggle.startsWith("+")) {
+				enabled.add(toggle.substring(1));
+			} else {
+				enabled.remove(toggle.substring(1));
+			}
+		}
+
+		if (enabled("regalloc")) {
+			passes.add(new RegisterAllocator());
+		}
+		if (enabled("peephole")) {
+			passes.add(new PeepholeOptimizer(disabledRules));
+		}
+		if (enabled("unreachable")) {
+			passes.add(new UnreachableCode());
+		}
+		if (enabled("repeat")) {
+			passes.add(new PeepholeOptimizer(disabledRules));
+			passes.add(new UnreachableCode());
+		}
+	}
+
+	public boolean enabled(String pass) {
+		return enabled.contains(pass);
+	}
+
+	public void run(IrFunction function, FilePair source) {
+		String before = diff == null ? null : textOf(function);
+
+		for (var pass : passes) {
+			try (var phase = Profiler.begin("pass " + pass.name(), source)) {
+				pass.run(function);
+			}
+
+			if (diff != null) {
+				String after = textOf(function);
+				writeDiff(function.name, pass.name(), before, after);
+				before = after;
+			}
+		}
+	}
+
+	private static String textOf(IrFunction function) {
+		var text = new StringWriter();
+		var out = new PrintWriter(text);
+		FasmEmitter.emit(function, out);
+		out.flush();
+		return text.toString();
+	}
+
+	// A unified diff with a single hunk, from the first line that changed to the last one
+	private void writeDiff(String function, String pass, String before, String after) {
+		if (before.equals(after)) {
+			return;
+		}
+
+		var a = before.split("\n");
+		var b = after.split("\n");
+		int start = 0;
+		while (start < a.length && start < b.length && a[start].equals(b[start])) {
+			start++;
+		}
+		int endA = a.length;
+		int endB = b.length;
+		while (endA > start && endB > start && a[endA - 1].equals(b[endB - 1])) {
+			endA--;
+			endB--;
+		}
+
+		// Some lines around it, like `diff -u`
+		int from = Math.max(0, start - 3);
+		int toA = Math.min(a.length, endA + 3);
+		int toB = endB + (toA - endA);
+
+		diff.println("--- " + function + " before " + pass);
+		diff.println("+++ " + function + " after " + pass);
+		diff.println("@@ -" + (from + 1) + "," + (toA - from) + " +" + (from + 1) + "," + (toB - from) + " @@");
+		for (int i = from; i < start; i++) {
+			diff.println(" " + a[i]);
+		}
+		for (int i = start; i < endA; i++) {
+			diff.println("-" + a[i]);
+		}
+		for (int i = start; i < endB; i++) {
+			diff.println("+" + b[i]);
+		}
+		for (int i = endA; i < toA; i++) {
+			diff.println(" " + a[i]);
+		}
+	}
+}
@@ -0,0 +1,425 @@
+package com.scopelang.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.scopelang.Profiler;
+
+// Rewrites short sequences of instructions into cheaper ones, over and over until nothing matches.
+// None of the rules look past a label, jump, call, return or inline assembly.
+public class PeepholeOptimizer implements Pass {
+	private interface Rewrite {
+		// Tries to rewrite the instructions at the start of the window, returns if it did
+		boolean apply(Window window);
+	}
+
+	private static class Rule {
+		public String name;
+		public Rewrite rewrite;
+
+		public Rule(String name, Rewrite rewrite) {
+			this.name = name;
+			this.rewrite = rewrite;
+		}
+	}
+
+	// The instructions from the one being looked at on. They are kept back to front, so
+	// rewriting near the start doesn't have to move everything after it.
+	private static class Window {
+		private ArrayList<Instruction> reversed;
+
+		public Window(List<Instruction> instructions) {
+			reversed = new ArrayList<>(instructions);
+			Collections.reverse(reversed);
+		}
+
+		public boolean has(int i) {
+			return i < reversed.size();
+		}
+
+		public Instruction get(int i) {
+			return reversed.get(reversed.size() - 1 - i);
+		}
+
+		public void set(int i, Instruction instruction) {
+			reversed.set(reversed.size() - 1 - i, instruction);
+		}
+
+		public void add(int i, Instruction instruction) {
+			reversed.add(reversed.size() - i, instruction);
+		}
+
+		public void remove(int i) {
+			reversed.remove(reversed.size() - 1 - i);
+		}
+
+		// Done with the first one
+		public Instruction next() {
+			return reversed.remove(reversed.size() - 1);
+		}
+	}
+
+	// Only these are understood well enough to look past, everything else could use any register
+	private static final Set<String> WRITES_FIRST = Set.of(
+		"mov", "lea", "movzx", "movq", "cvtsi2sd", "cvttsd2si", "vlist_get", "pop");
+	private static final Set<String> CHANGES_FIRST = Set.of(
+		"add", "sub", "imul", "and", "or", "xor", "shl", "shr", "sar", "inc", "dec", "neg", "not",
+		"addsd", "subsd", "mulsd", "divsd");
+	private static final Set<String> READS_ALL = Set.of(
+		"cmp", "test", "comisd", "ucomisd", "push");
+
+	// Conditions and the ones that are true when they are not
+	private static final Map<String, String> INVERTED = Map.ofEntries(
+		Map.entry("e", "ne"), Map.entry("ne", "e"),
+		Map.entry("g", "le"), Map.entry("le", "g"),
+		Map.entry("l", "ge"), Map.entry("ge", "l"),
+		Map.entry("a", "be"), Map.entry("be", "a"),
+		Map.entry("b", "nb"), Map.entry("nb", "b"),
+		Map.entry("p", "np"), Map.entry("np", "p"));
+
+	private static final int MAX_ROUNDS = 16;
+
+	private static final List<Rule> RULES = List.of(
+		// `vlist_set 3` then `vlist_get rdi, 3`, the value is still in `rdi`
+		new Rule("store-load", w -> {
+			var store = w.get(0);
+			if (store.kind != Instruction.Kind.STORE || !w.has(1)) {
+				return false;
+			}
+
+			var load = w.get(1);
+			if (load.kind != Instruction.Kind.LOAD || load.slot != store.slot) {
+				return false;
+			}
+
+			w.remove(1);
+			return true;
+		}),
+		// `push rdi`, something that doesn't need the stack or `rsi`, then `pop rsi`
+		new Rule("push-pop", w -> {
+			var push = w.get(0);
+			if (!push.isOp("push") || push.operands.size() != 1 || push.operand(0).kind != Operand.Kind.REGISTER) {
+				return false;
+			}
+
+			var from = push.operand(0);
+			for (int j = 1; j <= 2 && w.has(j); j++) {
+				var pop = w.get(j);
+				if (!pop.isOp("pop") || pop.operands.size() != 1 || pop.operand(0).kind != Operand.Kind.REGISTER) {
+					continue;
+				}
+
+				var to = pop.operand(0);
+				if (j == 2) {
+					var between = w.get(1);
+					if (between.isOp("push") || between.isOp("pop") || touches(between, to.text)
+						|| touches(between, "rsp")) {
+						return false;
+					}
+				}
+
+				w.remove(j);
+				if (from.equals(to)) {
+					w.remove(0);
+				} else {
+					w.set(0, Instruction.op(push.indent, "mov", to, from));
+				}
+				return true;
+			}
+
+			return false;
+		}),
+		// `mov rdi, QWORD 10` then `mov rsi, rdi`, when `rdi` isn't needed after
+		new Rule("forward-move", w -> {
+			var first = w.get(0);
+			var target = writtenRegister(first);
+			if (target == null || !w.has(1)) {
+				return false;
+			}
+
+			var move = w.get(1);
+			if (!move.isOp("mov") || move.operand(0).kind != Operand.Kind.REGISTER
+				|| !move.operand(1).isRegister(target) || !isDead(w, 2, target)) {
+				return false;
+			}
+
+			var register = move.operand(0);
+			Instruction replacement;
+			if (first.kind == Instruction.Kind.LOAD) {
+				replacement = Instruction.op(first.indent, "vlist_get", register,
+					new Operand(Operand.Kind.IMMEDIATE, Integer.toString(first.slot)));
+			} else {
+				replacement = Instruction.op(first.indent, first.opcode, register);
+				replacement.operands.addAll(first.operands.subList(1, first.operands.size()));
+			}
+
+			w.set(0, replacement);
+			w.remove(1);
+			return true;
+		}),
+		// A register that is written again before anything reads it
+		new Rule("dead-move", w -> {
+			var first = w.get(0);
+			boolean self = first.isOp("mov") && first.operand(0).kind == Operand.Kind.REGISTER
+				&& first.operand(0).equals(first.operand(1));
+
+			var target = writtenRegister(first);
+			if (!self && (target == null || first.isOp("pop") || !isDead(w, 1, target))) {
+				return false;
+			}
+
+			w.remove(0);
+			return true;
+		}),
+		// A bool made from the flags only to branch on it, `setl al` ... `cmp rdi, 0` `je .l0` is `jge .l0`.
+		// The generator only branches on a bool for conditions, and doesn't need it after.
+		new Rule("setcc-branch", w -> {
+			var set = w.get(0);
+			if (set.kind != Instruction.Kind.OP || !set.opcode.startsWith("set") || !w.has(3)
+				|| !set.operand(0).isRegister("al")) {
+				return false;
+			}
+
+			String condition = set.opcode.substring(3);
+			var extend = w.get(1);
+			if (!INVERTED.containsKey(condition) || !extend.isOp("movzx") || !extend.operand(0).isRegister("rdi")
+				|| !extend.operand(1).isRegister("al")) {
+				return false;
+			}
+
+			Long compared = comparedWith(w.get(2));
+			var jump = w.get(3);
+			if (compared == null || jump.jumpTarget() == null || !(jump.isOp("je") || jump.isOp("jne"))) {
+				return false;
+			}
+
+			// Jumps when the bool is 1, or when it is 0
+			boolean whenTrue = (compared == 1) == jump.isOp("je");
+			w.set(0, Instruction.op(jump.indent, "j" + (whenTrue ? condition : INVERTED.get(condition)),
+				jump.operand(0)));
+			w.remove(3);
+			w.remove(2);
+			w.remove(1);
+			return true;
+		}),
+		// A condition that was folded into a constant, the branch is either always or never taken
+		new Rule("const-branch", w -> {
+			var move = w.get(0);
+			if (!move.isOp("mov") || !move.operand(0).isRegister("rdi") || !w.has(2)) {
+				return false;
+			}
+
+			Long value = immediate(move.operand(1));
+			Long compared = comparedWith(w.get(1));
+			var jump = w.get(2);
+			if (value == null || compared == null || jump.jumpTarget() == null
+				|| !(jump.isOp("je") || jump.isOp("jne"))) {
+				return false;
+			}
+
+			boolean taken = (value.longValue() == compared.longValue()) == jump.isOp("je");
+			w.remove(2);
+			w.remove(1);
+			w.remove(0);
+			if (taken) {
+				w.add(0, Instruction.op(jump.indent, "jmp", jump.operand(0)));
+			}
+			return true;
+		}));
+
+	private ArrayList<Rule> rules = new ArrayList<>();
+
+	public PeepholeOptimizer(Set<String> disabled) {
+		for (var rule : RULES) {
+			if (!disabled.contains(rule.name)) {
+				rules.add(rule);
+			}
+		}
+	}
+
+	public static List<String> ruleNames() {
+		var names = new ArrayList<String>();
+		for (var rule : RULES) {
+			names.add(rule.name);
+		}
+
+		return names;
+	}
+
+	@Override
+	public String name() {
+		return "peephole";
+	}
+
+	@Override
+	public void run(IrFunction function) {
+		lowerRegisterSlots(function);
+
+		var applied = new TreeMap<String, Long>();
+		for (int round = 0; round < MAX_ROUNDS; round++) {
+			boolean changed = false;
+			var window = new Window(function.instructions);
+			var done = new ArrayList<Instruction>(function.instructions.size());
+			while (window.has(0)) {
+				boolean rewritten = false;
+				for (var rule : rules) {
+					if (window.has(0) && rule.rewrite.apply(window)) {
+						applied.merge(rule.name, 1L, Long::sum);
+						rewritten = true;
+					}
+				}
+
+				// Every rule makes the code shorter, so going back one to see if that matches now always ends
+				if (rewritten && !done.isEmpty()) {
+					window.add(0, done.remove(done.size() - 1));
+				} else if (window.has(0)) {
+					done.add(window.next());
+				}
+				changed |= rewritten;
+			}
+
+			function.instructions = done;
+			if (!changed) {
+				break;
+			}
+		}
+
+		for (var rule : applied.entrySet()) {
+			Profiler.tally("peephole " + rule.getKey(), rule.getValue());
+		}
+	}
+
+	// Local variables in registers are plain moves from here on, so the rules can see through them
+	private static void lowerRegisterSlots(IrFunction function) {
+		var list = function.instructions;
+		for (int i = 0; i < list.size(); i++) {
+			var instruction = list.get(i);
+			var register = function.registers.get(instruction.slot);
+			if (register == null) {
+				continue;
+			}
+
+			if (instruction.kind == Instruction.Kind.LOAD) {
+				list.set(i, Instruction.op(instruction.indent, "mov",
+					Operand.register("rdi"), Operand.register(register)));
+			} else if (instruction.kind == Instruction.Kind.STORE) {
+				list.set(i, Instruction.op(instruction.indent, "mov",
+					Operand.register(register), Operand.register("rdi")));
+			}
+		}
+	}
+
+	// The register an instruction sets without looking at what was in it before
+	private static String writtenRegister(Instruction instruction) {
+		if (instruction.kind == Instruction.Kind.LOAD) {
+			return "rdi";
+		}
+
+		if (instruction.kind != Instruction.Kind.OP || !WRITES_FIRST.contains(instruction.opcode)
+			|| instruction.operands.isEmpty() || instruction.operand(0).kind != Operand.Kind.REGISTER) {
+			return null;
+		}
+
+		String register = instruction.operand(0).text;
+		if (!Operand.isFullRegister(register)) {
+			return null;
+		}
+
+		for (int i = 1; i < instruction.operands.size(); i++) {
+			if (mentions(instruction.operand(i), register)) {
+				return null;
+			}
+		}
+
+		return register;
+	}
+
+	// Could read or change the register, as far as the rules know
+	private static boolean touches(Instruction instruction, String register) {
+		switch (instruction.kind) {
+			case LOAD:
+				return register.equals("rdi");
+			case STORE:
+				// `vlist_set` uses `rax` for the address
+				return register.equals("rdi") || register.equals("rax");
+			case OP:
+				break;
+			default:
+				return true;
+		}
+
+		String opcode = instruction.opcode;
+		if (opcode.equals("push") || opcode.equals("pop")) {
+			if (register.equals("rsp")) {
+				return true;
+			}
+		} else if (opcode.equals("imul") && instruction.operands.size() < 2) {
+			// Multiplies `rax` and puts the result in `rdx:rax`
+			return true;
+		}
+
+		if (!WRITES_FIRST.contains(opcode) && !CHANGES_FIRST.contains(opcode) && !READS_ALL.contains(opcode)
+			&& !opcode.startsWith("set") && !opcode.startsWith("cmov")) {
+			return true;
+		}
+
+		for (var operand : instruction.operands) {
+			if (mentions(operand, register)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	// Nothing reads the register before it is written again
+	private static boolean isDead(Window window, int from, String register) {
+		for (int i = from; window.has(i); i++) {
+			var instruction = window.get(i);
+			if (register.equals(writtenRegister(instruction))) {
+				return true;
+			} else if (touches(instruction, register)) {
+				return false;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean mentions(Operand operand, String register) {
+		for (var name : Operand.namesOf(register)) {
+			if (operand.mentions(name)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	// `cmp rdi, 0` and `cmp rdi, 1` are how the generator branches on a bool
+	private static Long comparedWith(Instruction instruction) {
+		if (!instruction.isOp("cmp") || !instruction.operand(0).isRegister("rdi")) {
+			return null;
+		}
+
+		return immediate(instruction.operand(1));
+	}
+
+	private static Long immediate(Operand operand) {
+		if (operand.kind != Operand.Kind.IMMEDIATE) {
+			return null;
+		}
+
+		String text = operand.text.startsWith("QWORD ") ? operand.text.substring(6).trim() : operand.text;
+		try {
+			return Long.parseLong(text);
+		} catch (NumberFormatException e) {
+			// Decimals
+			return null;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package com.scopelang.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+// Linear scan register allocation of the local variables of a function.
+// Variables that don't get a register (or all of them, with inline assembly) stay in the vlist.
+public class RegisterAllocator implements Pass {
+	// Callee saved, nothing else in the generated code or `ELF64.inc` uses these
+	public static final String[] REGISTERS = {
+		"rbx",
+		"r12",
+		"r13",
+		"r14",
+		"r15"
+	};
+
+	// Every loop a use is in makes it this many times more important
+	private static final long LOOP_WEIGHT = 8;
+	private static final int MAX_LOOP_DEPTH = 6;
+
+	private static class Interval {
+		public int slot;
+		public int start;
+		public int end;
+		public long weight = 0;
+		public String register = null;
+
+		public Interval(int slot, int start) {
+			this.slot = slot;
+			this.start = start;
+			this.end = start;
+		}
+	}
+
+	@Override
+	public String name() {
+		return "regalloc";
+	}
+
+	@Override
+	public void run(IrFunction function) {
+		// `$name$` in inline assembly refers to the vlist slot of the variable. The assembly can
+		// use these registers too, while the callers keep their own variables in them.
+		if (function.hasAssembly) {
+			function.savedRegisters.addAll(List.of(REGISTERS));
+			return;
+		}
+
+		var loops = findLoops(function.instructions);
+		var intervals = buildIntervals(function.instructions, loops);
+		allocate(intervals);
+
+		var used = new boolean[REGISTERS.length];
+		for (var interval : intervals) {
+			if (interval.register != null) {
+				function.registers.put(interval.slot, interval.register);
+				used[List.of(REGISTERS).indexOf(interval.register)] = true;
+			}
+		}
+
+		// In the order they are pushed in at the start of the function
+		for (int i = 0; i < REGISTERS.length; i++) {
+			if (used[i]) {
+				function.savedRegisters.add(REGISTERS[i]);
+			}
+		}
+	}
+
+	// Every backwards jump is a loop, from the label to the jump
+	public static ArrayList<int[]> findLoops(List<Instruction> instructions) {
+		var labels = new HashMap<String, Integer>();
+		var loops = new ArrayList<int[]>();
+
+		for (int i = 0; i < instructions.size(); i++) {
+			var instruction = instructions.get(i);
+			if (instruction.kind == Instruction.Kind.LABEL) {
+				labels.put(instruction.text, i);
+			} else if (instruction.jumpTarget() != null) {
+				var target = labels.get(instruction.jumpTarget());
+				if (target != null) {
+					loops.add(new int[] { target, i });
+				}
+			}
+		}
+
+		return loops;
+	}
+
+	private static ArrayList<Interval> buildIntervals(List<Instruction> instructions, ArrayList<int[]> loops) {
+		var intervals = new TreeMap<Integer, Interval>();
+
+		for (int i = 0; i < instructions.size(); i++) {
+			var instruction = instructions.get(i);
+			if (instruction.kind != Instruction.Kind.LOAD && instruction.kind != Instruction.Kind.STORE) {
+				continue;
+			}
+
+			int index = i;
+			var interval = intervals.computeIfAbsent(instruction.slot, k -> new Interval(k, index));
+			interval.end = i;
+
+			int depth = 0;
+			for (var loop : loops) {
+				if (loop[0] <= i && i <= loop[1]) {
+					depth++;
+				}
+			}
+
+			long weight = 1;
+			for (int d = 0; d < Math.min(depth, MAX_LOOP_DEPTH); d++) {
+				weight *= LOOP_WEIGHT;
+			}
+			interval.weight += weight;
+		}
+
+		// A variable from before a loop that is used in it has to live until the loop is done,
+		// since the next iteration still needs it
+		for (var interval : intervals.values()) {
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				for (var loop : loops) {
+					if (interval.start < loop[0] && interval.end >= loop[0] && interval.end < loop[1]) {
+						interval.end = loop[1];
+						changed = true;
+					}
+				}
+			}
+		}
+
+		var sorted = new ArrayList<>(intervals.values());
+		sorted.sort((a, b) -> Integer.compare(a.start, b.start));
+		return sorted;
+	}
+
+	private static void allocate(ArrayList<Interval> intervals) {
+		var active = new ArrayList<Interval>();
+		var free = new ArrayList<String>(List.of(REGISTERS));
+
+		for (var interval : intervals) {
+			// Give back the registers of everything that is done
+			for (int i = active.size() - 1; i >= 0; i--) {
+				if (active.get(i).end < interval.start) {
+					free.add(0, active.get(i).register);
+					active.remove(i);
+				}
+			}
+
+			if (!free.isEmpty()) {
+				interval.register = free.remove(0);
+				active.add(interval);
+				continue;
+			}
+
+			// Out of registers, so whatever is used the least goes (or stays) in the vlist
+			var coldest = interval;
+			for (var other : active) {
+				if (other.weight < coldest.weight) {
+					coldest = other;
+				}
+			}
+
+			if (coldest != interval) {
+				interval.register = coldest.register;
+				coldest.register = null;
+				active.remove(coldest);
+				active.add(interval);
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.scopelang.ir;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import com.scopelang.Profiler;
+
+// Removes the instructions that can never run: everything after a `jmp` or `ret` until a label
+// that is jumped to. Labels nothing jumps to go too, and so do jumps to the very next instruction.
+public class UnreachableCode implements Pass {
+	@Override
+	public String name() {
+		return "unreachable";
+	}
+
+	@Override
+	public void run(IrFunction function) {
+		long removed = 0;
+
+		// Removing code can leave labels without jumps, which can make more code unreachable
+		boolean changed = true;
+		while (changed) {
+			var targets = new HashSet<String>();
+			for (var instruction : function.instructions) {
+				if (instruction.jumpTarget() != null) {
+					targets.add(instruction.jumpTarget());
+				}
+			}
+
+			var kept = new ArrayList<Instruction>(function.instructions.size());
+			boolean reachable = true;
+			for (var instruction : function.instructions) {
+				// Inline assembly can jump to any label, and can have its own
+				if (instruction.kind == Instruction.Kind.ASM) {
+					reachable = true;
+				} else if (instruction.kind == Instruction.Kind.LABEL) {
+					if (!function.hasAssembly && !targets.contains(instruction.text)) {
+						continue;
+					}
+
+					reachable = true;
+				}
+
+				if (reachable) {
+					kept.add(instruction);
+					reachable = !instruction.isOp("jmp") && !instruction.isOp("ret");
+				}
+			}
+
+			// `jmp .l0` right before `.l0:`
+			for (int i = kept.size() - 2; i >= 0; i--) {
+				var target = kept.get(i).jumpTarget();
+				if (kept.get(i).isOp("jmp") && target != null
+					&& kept.get(i + 1).kind == Instruction.Kind.LABEL && kept.get(i + 1).text.equals(target)) {
+
+					kept.remove(i);
+				}
+			}
+
+			changed = kept.size() != function.instructions.size();
+			removed += function.instructions.size() - kept.size();
+			function.instructions = kept;
+		}
+
+		Profiler.tally("unreachable instructions", removed);
+	}
+}
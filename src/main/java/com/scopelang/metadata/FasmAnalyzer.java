@@ -1,11 +1,25 @@
 package com.scopelang.metadata;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
 
 import com.scopelang.*;
+import com.scopelang.FilePair.RootType;
 import com.scopelang.preprocess.*;
 import com.scopelang.preprocess.ObjectGatherer.ScopeObject;
 
@@ -14,23 +28,43 @@ public class FasmAnalyzer {
 		public FilePair file;
 		public String md5;
 
-		public ImportMeta(FilePair file, String md5) {
+		// Name of the library it is from (null if it isn't from one)
+		public String library;
+
+		public ImportMeta(FilePair file, String md5, String library) {
 			this.file = file;
 			this.md5 = md5;
+			this.library = library;
 		}
 
 		@Override
 		public boolean equals(Object obj) {
 			return file.equals(((ImportMeta) obj).file)
-				&& md5.equals(((ImportMeta) obj).md5);
+				&& md5.equals(((ImportMeta) obj).md5)
+				&& Objects.equals(library, ((ImportMeta) obj).library);
 		}
 
 		@Override
 		public int hashCode() {
-			return Objects.hash(file, md5);
+			return Objects.hash(file, md5, library);
+		}
+	}
+
+	private static class CacheEntry {
+		public FileTime modified;
+		public long size;
+		public FasmAnalyzer analyzer;
+
+		public CacheEntry(FileTime modified, long size, FasmAnalyzer analyzer) {
+			this.modified = modified;
+			this.size = size;
+			this.analyzer = analyzer;
 		}
 	}
 
+	// Analyzed files stay around for as long as this process does (useful for the daemon)
+	private static final ConcurrentHashMap<String, CacheEntry> cache = new ConcurrentHashMap<>();
+
 	private FilePair sourceFile;
 	private String text;
 
@@ -38,15 +72,197 @@ public class FasmAnalyzer {
 	public String type = null;
 	public String hash = null;
 	public String source = null;
+	public String build = null;
+	public String settings = null;
+	public String interfaceHash = null;
 	public HashMap<Identifier, FuncInfo> functions = new HashMap<>();
 	public HashMap<Identifier, ScopeType> constants = new HashMap<>();
+	// Values of the constants that were known at compile time
+	public HashMap<Identifier, String> constantValues = new HashMap<>();
 	public HashMap<Identifier, ScopeObject> objects = new HashMap<>();
 
+	// Byte offsets of the segments, -1 if the file doesn't have them
+	public long codeStart = -1;
+	public long codeEnd = -1;
+	public long readStart = -1;
+	public long readEnd = -1;
+
+	// Only for reading an index into
+	FasmAnalyzer() {
+	}
+
 	public FasmAnalyzer(FilePair sourceFile) {
 		this.sourceFile = sourceFile;
-		text = Utils.readFile(sourceFile.toFile());
+
+		// The binary index is much faster than going through the whole file
+		if (MetadataIndex.read(this, sourceFile)) {
+			interfaceHash = computeInterfaceHash();
+			return;
+		}
+
+		var bytes = Utils.readFileBytes(sourceFile.toFile());
+		text = new String(bytes, StandardCharsets.UTF_8);
 
 		analyze();
+		findSegments(bytes);
+		text = null;
+		interfaceHash = computeInterfaceHash();
+
+		if (codeStart != -1 && readStart != -1) {
+			MetadataIndex.write(this, sourceFile.toFile());
+		}
+	}
+
+	public static FasmAnalyzer of(FilePair sourceFile) {
+		var path = sourceFile.toFile().getAbsolutePath();
+
+		try {
+			var attributes = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+			var entry = cache.get(path);
+			if (entry != null && entry.size == attributes.size()
+				&& entry.modified.equals(attributes.lastModifiedTime())) {
+
+				return entry.analyzer;
+			}
+
+			var analyzer = new FasmAnalyzer(sourceFile);
+			cache.put(path, new CacheEntry(attributes.lastModifiedTime(), attributes.size(), analyzer));
+			return analyzer;
+		} catch (IOException e) {
+			// Let the constructor report it
+			return new FasmAnalyzer(sourceFile);
+		}
+	}
+
+	// A build that was cut short can leave an empty or half written file behind,
+	// which has to be generated again instead of analyzed
+	public static boolean isComplete(FilePair sourceFile) {
+		var file = sourceFile.toFile();
+		if (!file.isFile() || file.length() == 0) {
+			return false;
+		}
+
+		// Only complete files get an index
+		var analyzer = new FasmAnalyzer();
+		if (MetadataIndex.read(analyzer, sourceFile)) {
+			return true;
+		}
+
+		try {
+			var text = Files.readString(file.toPath(), StandardCharsets.UTF_8);
+			return text.contains(";@FILE,") && text.contains(";@SEG_READ");
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	// Everything that files importing this one are compiled against
+	private String computeInterfaceHash() {
+		var lines = new ArrayList<String>();
+		for (var importMeta : imports) {
+			lines.add("IMPORT," + importMeta.md5 + "," + importMeta.library + "," + importMeta.file.file.getPath());
+		}
+
+		for (var func : functions.entrySet()) {
+			var line = "FUNC," + func.getKey().get() + "," + func.getValue().returnType;
+			for (var arg : func.getValue().argTypes) {
+				line += "," + arg;
+			}
+			if (func.getValue().inlineBody != null) {
+				line += "," + func.getValue().inlineBody + "," + String.join(",", func.getValue().paramNames);
+			}
+			lines.add(line);
+		}
+
+		for (var constant : constants.entrySet()) {
+			var value = constantValues.get(constant.getKey());
+			lines.add("CONST," + constant.getKey().get() + "," + constant.getValue() + (value == null ? "" : "," + value));
+		}
+
+		for (var object : objects.entrySet()) {
+			var line = "OBJ," + object.getKey().get();
+			for (int i = 0; i < object.getValue().fields.size(); i++) {
+				line += "," + object.getValue().fields.get(i) + ":" + object.getValue().fieldTypes.get(i);
+			}
+			lines.add(line);
+		}
+
+		lines.sort(null);
+		return DigestUtils.md5Hex(String.join("\n", lines));
+	}
+
+	public String readCodeSegment() {
+		return readSegment(codeStart, codeEnd);
+	}
+
+	public String readReadSegment() {
+		return readSegment(readStart, readEnd);
+	}
+
+	private String readSegment(long start, long end) {
+		if (start == -1 || end < start) {
+			Utils.error("Could not find the segments of `" + sourceFile.toFile() + "`.",
+				"Try running `scope clean` and building again.");
+			Utils.forceExit();
+			return null;
+		}
+
+		try (var channel = FileChannel.open(sourceFile.toFile().toPath(), StandardOpenOption.READ)) {
+			var buffer = ByteBuffer.allocate((int) (end - start));
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, start + buffer.position()) == -1) {
+					break;
+				}
+			}
+
+			return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			Utils.error("File `" + sourceFile.toFile() + "` could not be read.");
+			if (!Utils.disableLog) {
+				e.printStackTrace();
+			}
+			Utils.forceExit();
+			return null;
+		}
+	}
+
+	private void findSegments(byte[] bytes) {
+		// The markers are plain ASCII, so they can be searched for in the UTF-8 bytes directly
+		int code = indexOf(bytes, ";@SEG_CODE");
+		int read = indexOf(bytes, ";@SEG_READ");
+		if (code == -1 || read == -1) {
+			return;
+		}
+
+		codeStart = code + 10;
+		codeEnd = read;
+		readStart = read + 10;
+		readEnd = bytes.length;
+	}
+
+	private static int indexOf(byte[] bytes, String marker) {
+		var target = marker.getBytes(StandardCharsets.US_ASCII);
+		outer: for (int i = 0; i <= bytes.length - target.length; i++) {
+			for (int j = 0; j < target.length; j++) {
+				if (bytes[i + j] != target[j]) {
+					continue outer;
+				}
+			}
+
+			return i;
+		}
+
+		return -1;
+	}
+
+	private int nextImport(int from) {
+		int normal = text.indexOf(";@IMPORT,", from);
+		int library = text.indexOf(";@LIB_IMPORT,", from);
+		if (normal == -1 || library == -1) {
+			return Math.max(normal, library);
+		}
+
+		return Math.min(normal, library);
 	}
 
 	private void analyze() {
@@ -75,10 +291,24 @@ public class FasmAnalyzer {
 		comma = text.indexOf("\n", fileIndex);
 		source = text.substring(fileIndex, comma);
 
-		// Analyze imports
-		for (int i = text.indexOf(";@IMPORT"); i != -1; i = text.indexOf(";@IMPORT", i + 1)) {
-			// Skip over ";@IMPORT" and the ","
-			i += 9;
+		// Analyze build info (older files don't have it)
+		int buildIndex = text.indexOf(";@BUILD");
+		if (buildIndex != -1) {
+			buildIndex += 8;
+
+			comma = text.indexOf(",", buildIndex);
+			build = text.substring(buildIndex, comma);
+
+			int newline = text.indexOf("\n", comma);
+			settings = text.substring(comma + 1, newline);
+		}
+
+		// Analyze imports (library imports have the name of the library before the path)
+		for (int i = nextImport(0); i != -1; i = nextImport(i + 1)) {
+			boolean fromLibrary = text.startsWith(";@LIB_IMPORT,", i);
+
+			// Skip over ";@IMPORT" or ";@LIB_IMPORT" and the ","
+			i += fromLibrary ? 13 : 9;
 
 			// Get the index of the next ","
 			int j = text.indexOf(",", i);
@@ -87,16 +317,24 @@ public class FasmAnalyzer {
 			String md5 = text.substring(i, j);
 			i = j + 1;
 
+			// Get the library
+			String library = null;
+			if (fromLibrary) {
+				j = text.indexOf(",", i);
+				library = text.substring(i, j);
+				i = j + 1;
+			}
+
 			// Get the index of the newline
 			j = text.indexOf("\n", i);
 
 			// Get the file
 			var path = text.substring(i, j);
 			var file = new FilePair(sourceFile.root,
-				new File(path), sourceFile.type);
+				new File(path), fromLibrary ? RootType.LIBRARY : sourceFile.type);
 
 			// Add
-			imports.add(new ImportMeta(file, md5));
+			imports.add(new ImportMeta(file, md5, library));
 		}
 
 		// Analyze functions
@@ -120,6 +358,22 @@ public class FasmAnalyzer {
 			functions.put(new Identifier(data[0]), funcInfo);
 		}
 
+		// Bodies of the functions that can be inlined
+		for (int i = text.indexOf(";@INLINE"); i != -1; i = text.indexOf(";@INLINE", i + 1)) {
+			// Skip over ";@INLINE" and the ","
+			i += 9;
+
+			// The name, the returned expression, and then the parameters
+			int end = text.indexOf("\n", i);
+			String[] data = text.substring(i, end).split(",");
+
+			var funcInfo = functions.get(new Identifier(data[0]));
+			if (funcInfo != null) {
+				funcInfo.inlineBody = data[1];
+				funcInfo.paramNames = Arrays.copyOfRange(data, 2, data.length);
+			}
+		}
+
 		// Analyze constants
 		for (int i = text.indexOf(";@CONST"); i != -1; i = text.indexOf(";@CONST", i + 1)) {
 			// Skip over ";@CONST" and the ","
@@ -135,11 +389,15 @@ public class FasmAnalyzer {
 			// Get the index of the newline
 			j = text.indexOf("\n", i);
 
-			// Get the type
-			var type = ScopeType.parseFromString(text.substring(i, j));
+			// Get the type, and the value if there is one
+			String[] data = text.substring(i, j).split(",");
+			var type = ScopeType.parseFromString(data[0]);
 
 			// Add
 			constants.put(new Identifier(name), type);
+			if (data.length > 1) {
+				constantValues.put(new Identifier(name), data[1]);
+			}
 		}
 
 		// Analyze objects
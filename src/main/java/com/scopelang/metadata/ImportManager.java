@@ -2,6 +2,7 @@ package com.scopelang.metadata;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import com.scopelang.*;
 import com.scopelang.FilePair.RootType;
@@ -11,6 +12,7 @@ public class ImportManager {
 	private Modules modules;
 
 	private ArrayList<FilePair> importedFiles = new ArrayList<>();
+	private HashMap<FilePair, String> libraryNames = new HashMap<>();
 
 	public ImportManager(Modules modules) {
 		this.modules = modules;
@@ -52,6 +54,7 @@ public class ImportManager {
 			var fp = new FilePair(root, fileName, RootType.LIBRARY);
 			if (!importedFiles.contains(fp)) {
 				importedFiles.add(fp);
+				libraryNames.put(fp, libName);
 			}
 		} else {
 			File file = new File(modules.task.source.root, real);
@@ -62,7 +65,9 @@ public class ImportManager {
 				return;
 			}
 
-			var fp = new FilePair(modules.task.source.root, real, RootType.NORMAL);
+			// Files imported by a library file are part of that library too
+			var type = modules.task.source.type == RootType.LIBRARY ? RootType.LIBRARY : RootType.NORMAL;
+			var fp = new FilePair(modules.task.source.root, real, type);
 			if (!importedFiles.contains(fp)) {
 				importedFiles.add(fp);
 			}
@@ -73,6 +78,11 @@ public class ImportManager {
 		importedFiles.add(file);
 	}
 
+	// Returns null if the file wasn't imported with a library prefix
+	public String libraryOf(FilePair file) {
+		return libraryNames.get(file);
+	}
+
 	public ArrayList<FilePair> getAll() {
 		return new ArrayList<>(importedFiles);
 	}
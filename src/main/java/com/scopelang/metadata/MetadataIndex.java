@@ -0,0 +1,222 @@
+package com.scopelang.metadata;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Objects;
+
+import org.apache.commons.io.FilenameUtils;
+
+import com.scopelang.*;
+import com.scopelang.FilePair.RootType;
+import com.scopelang.metadata.FasmAnalyzer.ImportMeta;
+import com.scopelang.preprocess.FuncInfo;
+import com.scopelang.preprocess.ObjectGatherer.ScopeObject;
+
+// Binary copy of the metadata in a `.scopelib`, stored next to it as a `.scopeidx`
+public final class MetadataIndex {
+	private static final int MAGIC = 0x53434958; // "SCIX"
+	// Bumped whenever the layout changes, older indexes are then just analyzed again
+	static final int VERSION = 5;
+
+	private MetadataIndex() {
+	}
+
+	public static File indexFileOf(File scopelib) {
+		return new File(FilenameUtils.removeExtension(scopelib.getPath()) + ".scopeidx");
+	}
+
+	public static void write(FasmAnalyzer analyzer, File scopelib) {
+		var indexFile = indexFileOf(scopelib);
+		var temp = new File(indexFile.getPath() + ".tmp");
+
+		try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			// Header (fixed size)
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(scopelib.length());
+			out.writeLong(scopelib.lastModified());
+			out.writeLong(analyzer.codeStart);
+			out.writeLong(analyzer.codeEnd);
+			out.writeLong(analyzer.readStart);
+			out.writeLong(analyzer.readEnd);
+
+			// File info
+			writeString(out, analyzer.type);
+			writeString(out, analyzer.hash);
+			writeString(out, analyzer.source);
+			writeString(out, Objects.toString(analyzer.build, ""));
+			writeString(out, Objects.toString(analyzer.settings, ""));
+
+			// Imports
+			out.writeInt(analyzer.imports.size());
+			for (var importMeta : analyzer.imports) {
+				writeString(out, importMeta.md5);
+				writeString(out, Objects.toString(importMeta.library, ""));
+				writeString(out, importMeta.file.file.getPath());
+			}
+
+			// Functions
+			out.writeInt(analyzer.functions.size());
+			for (var func : analyzer.functions.entrySet()) {
+				writeString(out, func.getKey().get());
+				writeString(out, func.getValue().returnType.toString());
+				out.writeInt(func.getValue().argTypes.length);
+				for (var arg : func.getValue().argTypes) {
+					writeString(out, arg.toString());
+				}
+
+				// An empty body means it can't be inlined
+				writeString(out, Objects.toString(func.getValue().inlineBody, ""));
+				if (func.getValue().inlineBody != null) {
+					out.writeInt(func.getValue().paramNames.length);
+					for (var param : func.getValue().paramNames) {
+						writeString(out, param);
+					}
+				}
+			}
+
+			// Constants
+			out.writeInt(analyzer.constants.size());
+			for (var constant : analyzer.constants.entrySet()) {
+				writeString(out, constant.getKey().get());
+				writeString(out, constant.getValue().toString());
+				writeString(out, analyzer.constantValues.getOrDefault(constant.getKey(), ""));
+			}
+
+			// Objects
+			out.writeInt(analyzer.objects.size());
+			for (var object : analyzer.objects.entrySet()) {
+				writeString(out, object.getKey().get());
+				out.writeInt(object.getValue().fields.size());
+				for (int i = 0; i < object.getValue().fields.size(); i++) {
+					writeString(out, object.getValue().fields.get(i));
+					writeString(out, object.getValue().fieldTypes.get(i).toString());
+				}
+			}
+		} catch (IOException e) {
+			// The index is only an optimization, the text metadata still works
+			temp.delete();
+			return;
+		}
+
+		if (!temp.renameTo(indexFile)) {
+			temp.delete();
+		}
+	}
+
+	// Returns false if there is no index or if it doesn't match the `.scopelib` anymore
+	public static boolean read(FasmAnalyzer analyzer, FilePair sourceFile) {
+		var scopelib = sourceFile.toFile();
+		var indexFile = indexFileOf(scopelib);
+		if (!indexFile.exists()) {
+			return false;
+		}
+
+		try (var channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+				return false;
+			}
+
+			if (in.getLong() != scopelib.length() || in.getLong() != scopelib.lastModified()) {
+				return false;
+			}
+
+			analyzer.codeStart = in.getLong();
+			analyzer.codeEnd = in.getLong();
+			analyzer.readStart = in.getLong();
+			analyzer.readEnd = in.getLong();
+
+			analyzer.type = readString(in);
+			analyzer.hash = readString(in);
+			analyzer.source = readString(in);
+			analyzer.build = readString(in);
+			analyzer.settings = readString(in);
+
+			int importCount = in.getInt();
+			for (int i = 0; i < importCount; i++) {
+				var md5 = readString(in);
+				var library = readString(in);
+				if (library.isEmpty()) {
+					var file = new FilePair(sourceFile.root, new File(readString(in)), sourceFile.type);
+					analyzer.imports.add(new ImportMeta(file, md5, null));
+				} else {
+					var file = new FilePair(sourceFile.root, new File(readString(in)), RootType.LIBRARY);
+					analyzer.imports.add(new ImportMeta(file, md5, library));
+				}
+			}
+
+			int funcCount = in.getInt();
+			for (int i = 0; i < funcCount; i++) {
+				var name = new Identifier(readString(in));
+				var returnType = ScopeType.parseFromString(readString(in));
+				var args = new ScopeType[in.getInt()];
+				for (int j = 0; j < args.length; j++) {
+					args[j] = ScopeType.parseFromString(readString(in));
+				}
+
+				var info = new FuncInfo(returnType, args);
+				var inlineBody = readString(in);
+				if (!inlineBody.isEmpty()) {
+					info.inlineBody = inlineBody;
+					info.paramNames = new String[in.getInt()];
+					for (int j = 0; j < info.paramNames.length; j++) {
+						info.paramNames[j] = readString(in);
+					}
+				}
+
+				analyzer.functions.put(name, info);
+			}
+
+			int constCount = in.getInt();
+			for (int i = 0; i < constCount; i++) {
+				var name = new Identifier(readString(in));
+				analyzer.constants.put(name, ScopeType.parseFromString(readString(in)));
+				var value = readString(in);
+				if (!value.isEmpty()) {
+					analyzer.constantValues.put(name, value);
+				}
+			}
+
+			int objectCount = in.getInt();
+			for (int i = 0; i < objectCount; i++) {
+				var name = new Identifier(readString(in));
+				var object = new ScopeObject();
+				int fieldCount = in.getInt();
+				for (int j = 0; j < fieldCount; j++) {
+					object.fields.add(readString(in));
+					object.fieldTypes.add(ScopeType.parseFromString(readString(in)));
+				}
+
+				analyzer.objects.put(name, object);
+			}
+
+			return true;
+		} catch (Exception e) {
+			// Corrupt or from an older compiler, just fall back to the text
+			analyzer.imports = new ArrayList<>();
+			analyzer.functions.clear();
+			analyzer.constants.clear();
+			analyzer.constantValues.clear();
+			analyzer.objects.clear();
+			return false;
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		var bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		var bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -6,12 +6,14 @@ import java.util.Map.Entry;
 
 import com.scopelang.*;
 import com.scopelang.ScopeParser.*;
+import com.scopelang.fasm.ConstFolder;
 import com.scopelang.fasm.LiteralEvaluator;
 import com.scopelang.fasm.LiteralEvaluator.LiteralOutput;
 
 public class ConstGatherer extends AbstractGatherer {
 	private HashMap<Identifier, ScopeType> constants = new HashMap<>();
 	private HashMap<Identifier, LiteralEvaluator.LiteralOutput> constantValues = new HashMap<>();
+	private HashMap<Identifier, ConstFolder.Value> foldedValues = new HashMap<>();
 
 	public ConstGatherer(Modules modules) {
 		super(modules);
@@ -48,6 +50,11 @@ public class ConstGatherer extends AbstractGatherer {
 
 		constantValues.put(ident, literal);
 		constants.put(ident, literal.type);
+
+		var value = ConstFolder.literal(ctx.literals());
+		if (value != null) {
+			foldedValues.put(ident, value);
+		}
 	}
 
 	public boolean exists(Identifier identifier) {
@@ -58,8 +65,16 @@ public class ConstGatherer extends AbstractGatherer {
 		return constants.get(identifier);
 	}
 
-	public void addLibConst(Identifier identifier, ScopeType scopeType) {
+	// Null if it isn't known at compile time
+	public ConstFolder.Value valueOf(Identifier identifier) {
+		return foldedValues.get(identifier);
+	}
+
+	public void addLibConst(Identifier identifier, ScopeType scopeType, ConstFolder.Value value) {
 		constants.put(identifier, scopeType);
+		if (value != null) {
+			foldedValues.put(identifier, value);
+		}
 	}
 
 	public Set<Entry<Identifier, LiteralOutput>> getAllValues() {
@@ -2,16 +2,28 @@ package com.scopelang.preprocess;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.stream.Stream;
 
 import com.scopelang.*;
 import com.scopelang.ScopeParser.*;
+import com.scopelang.fasm.Inliner;
+import com.scopelang.ir.PassManager;
 
 public class FuncGatherer extends AbstractGatherer {
 	private HashMap<Identifier, FuncInfo> functions = new HashMap<>();
+	// Bodies of the functions that can be inlined, the ones from other files are parsed when first used
+	private HashMap<Identifier, ExprContext> inlineBodies = new HashMap<>();
+	// Parsed from the metadata of other files, so their positions don't point into this one
+	private HashSet<Identifier> importedBodies = new HashSet<>();
+	// Nothing is looked at for inlining, or warned about, without the pass
+	private boolean inline;
 
 	public FuncGatherer(Modules modules) {
 		super(modules);
+
+		var cache = modules.task.scheduler.cache;
+		inline = new PassManager(cache.optLevel, cache.passToggles, cache.disabledRules).enabled("inline");
 	}
 
 	@Override
@@ -42,7 +54,16 @@ public class FuncGatherer extends AbstractGatherer {
 			return;
 		}
 
-		functions.put(ident, new FuncInfo(type, args.toArray(ScopeType[]::new)));
+		var info = new FuncInfo(type, args.toArray(ScopeType[]::new));
+		info.inlineBody = inline ? Inliner.bodyOf(ctx) : null;
+		if (info.inlineBody != null) {
+			info.paramNames = ctx.parameters().parameter().stream()
+				.map(p -> p.Identifier().getText())
+				.toArray(String[]::new);
+			inlineBodies.put(ident, ctx.codeblock().code().innerStatement(0).return_().expr());
+		}
+
+		functions.put(ident, info);
 	}
 
 	public void addLibFunc(Identifier name, FuncInfo info) {
@@ -61,6 +82,30 @@ public class FuncGatherer extends AbstractGatherer {
 		return functions.get(name).argTypes[n];
 	}
 
+	public ExprContext inlineBodyOf(Identifier name) {
+		var info = functions.get(name);
+		if (info.inlineBody == null) {
+			return null;
+		}
+
+		return inlineBodies.computeIfAbsent(name, k -> {
+			importedBodies.add(name);
+			return Inliner.parse(info.inlineBody);
+		});
+	}
+
+	public boolean isImportedBody(Identifier name) {
+		return importedBodies.contains(name);
+	}
+
+	public String[] paramNamesOf(Identifier name) {
+		return functions.get(name).paramNames;
+	}
+
+	public String inlineTextOf(Identifier name) {
+		return functions.get(name).inlineBody;
+	}
+
 	public int numberOfArgs(Identifier name) {
 		return functions.get(name).argTypes.length;
 	}
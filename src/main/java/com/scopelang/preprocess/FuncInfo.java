@@ -3,8 +3,12 @@ package com.scopelang.preprocess;
 import com.scopelang.ScopeType;
 
 public class FuncInfo {
-	ScopeType returnType;
-	ScopeType[] argTypes;
+	public ScopeType returnType;
+	public ScopeType[] argTypes;
+
+	// Set when the function can be inlined: the names of the parameters and the returned expression
+	public String[] paramNames = null;
+	public String inlineBody = null;
 
 	public FuncInfo(ScopeType returnType, ScopeType[] argTypes) {
 		this.returnType = returnType;
@@ -7,6 +7,7 @@ import org.antlr.v4.runtime.*;
 
 import com.scopelang.Modules;
 import com.scopelang.ScopeLexer;
+import com.scopelang.ScopeParser;
 import com.scopelang.Utils;
 import com.scopelang.error.ErrorLoc;
 import com.scopelang.project.ScopeXml;
@@ -61,6 +62,10 @@ public class TokenProcessor {
 					extactedStrings.put(str, index);
 				} else if (token.getType() == ScopeLexer.ImportKeyword) {
 					inImport = true;
+				} else if (token.getType() == ScopeLexer.Identifier && token.getText().equals("inline")
+					&& i + 1 < stream.size() && stream.get(i + 1).getType() == ScopeLexer.FuncKeyword) {
+					// A modifier, not a name
+					((WritableToken) token).setType(ScopeParser.InlineKeyword);
 				}
 			} else {
 				inImport = false;
@@ -0,0 +1,352 @@
+package com.scopelang.project;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.scopelang.FilePair;
+import com.scopelang.Scope;
+import com.scopelang.Utils;
+import com.scopelang.FilePair.RootType;
+import com.scopelang.metadata.FasmAnalyzer;
+import com.scopelang.project.CompileTask.Mode;
+
+public class BuildCache {
+	private static class StatEntry {
+		public long modified;
+		public long size;
+		public String md5;
+
+		public StatEntry(long modified, long size, String md5) {
+			this.modified = modified;
+			this.size = size;
+			this.md5 = md5;
+		}
+	}
+
+	// The store is shared by every project, so it can't grow without end. What wasn't used
+	// for the longest goes first, restoring an artifact counts as using it.
+	public static final long MAX_STORE_BYTES = 512L * 1024 * 1024;
+	public static final long MAX_STORE_AGE = 30L * 24 * 60 * 60 * 1000;
+
+	private static String buildId = null;
+
+	public String settingsHash;
+	public boolean libraryMode;
+	public int optLevel;
+	public TreeSet<String> passToggles;
+	public TreeSet<String> disabledRules;
+	public boolean emitDiff;
+	public File storeDir;
+
+	private File statFile;
+	private ConcurrentHashMap<String, StatEntry> stats = new ConcurrentHashMap<>();
+	private volatile boolean published = false;
+
+	public BuildCache(ScopeXml xml, File root) {
+		settingsHash = xml.settingsHash();
+		libraryMode = xml.mode.equals("library");
+		optLevel = xml.optLevel;
+		passToggles = xml.passToggles;
+		disabledRules = xml.disabledRules;
+		emitDiff = xml.emitDiff;
+		storeDir = storeDir();
+		statFile = new File(root, ".cache" + File.separator + "stat");
+
+		loadStats();
+	}
+
+	// Changes whenever the compiler itself does
+	public static synchronized String buildId() {
+		if (buildId == null) {
+			buildId = computeBuildId();
+		}
+
+		return buildId;
+	}
+
+	// Cheaper than the build id, for noticing that the compiler was rebuilt while running
+	public static String buildStamp() {
+		try {
+			var location = buildLocation();
+			if (Files.isRegularFile(location)) {
+				return Files.getLastModifiedTime(location).toMillis() + " " + Files.size(location);
+			}
+
+			long newest = 0;
+			long count = 0;
+			try (var paths = Files.walk(location)) {
+				for (var path : paths.filter(Files::isRegularFile).toArray(Path[]::new)) {
+					newest = Math.max(newest, Files.getLastModifiedTime(path).toMillis());
+					count++;
+				}
+			}
+
+			return newest + " " + count;
+		} catch (Exception e) {
+			return "unknown";
+		}
+	}
+
+	// The jar or classes folder the compiler is running from
+	private static Path buildLocation() throws Exception {
+		return Paths.get(Scope.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+	}
+
+	private static String computeBuildId() {
+		try {
+			var location = buildLocation();
+			if (Files.isRegularFile(location)) {
+				return Utils.hashOf(location.toFile());
+			}
+
+			// Running from a classes folder (tests, IDEs)
+			var digest = DigestUtils.getMd5Digest();
+			try (var paths = Files.walk(location)) {
+				for (var path : paths.filter(Files::isRegularFile).sorted().toArray(Path[]::new)) {
+					digest.update(location.relativize(path).toString().getBytes(StandardCharsets.UTF_8));
+					digest.update(Files.readAllBytes(path));
+				}
+			}
+
+			return Hex.encodeHexString(digest.digest());
+		} catch (Exception e) {
+			return "unknown";
+		}
+	}
+
+	// Shared by every project of the current user
+	public static File storeDir() {
+		var xdg = System.getenv("XDG_CACHE_HOME");
+		if (xdg != null && !xdg.isEmpty()) {
+			return new File(xdg, "scope");
+		}
+
+		return new File(System.getProperty("user.home"), ".cache" + File.separator + "scope");
+	}
+
+	public String hashOf(File file) {
+		var path = file.getAbsolutePath();
+
+		// Unchanged size and modification time means unchanged contents
+		try {
+			var attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			long modified = attributes.lastModifiedTime().toMillis();
+
+			var entry = stats.get(path);
+			if (entry != null && entry.modified == modified && entry.size == attributes.size()) {
+				return entry.md5;
+			}
+
+			var md5 = Utils.hashOf(file);
+			stats.put(path, new StatEntry(modified, attributes.size(), md5));
+			return md5;
+		} catch (IOException e) {
+			// Let hashing report it
+			return Utils.hashOf(file);
+		}
+	}
+
+	public boolean isCompatible(FasmAnalyzer analyzer, FilePair file) {
+		return buildId().equals(analyzer.build) && settingsOf(file).equals(analyzer.settings);
+	}
+
+	public String keyOf(FilePair file, Mode mode, String md5) {
+		return DigestUtils.md5Hex(buildId() + "\n" + settingsOf(file) + "\n" + mode + "\n"
+			+ file.type + "\n" + file.file.getPath() + "\n" + md5);
+	}
+
+	// Libraries are compiled with their own settings, not the ones of the project using them.
+	// The optimization level (and passes and rules) change the code of everything though.
+	// So does `--emit-diff`, since the diffs are only written when compiling.
+	public String settingsOf(FilePair file) {
+		var optimize = new StringBuilder("O").append(optLevel);
+		for (var toggle : passToggles) {
+			optimize.append(" pass").append(toggle);
+		}
+		for (var rule : disabledRules) {
+			optimize.append(" -").append(rule);
+		}
+		if (emitDiff) {
+			optimize.append(" diff");
+		}
+
+		return optimize + "," + (file.type == RootType.LIBRARY || libraryMode ? "-" : settingsHash);
+	}
+
+	// The interface hashes of everything the artifact was compiled against
+	public static String depsHashOf(FasmAnalyzer analyzer) {
+		var lines = new ArrayList<String>();
+		for (var importMeta : analyzer.imports) {
+			lines.add(importMeta.md5 + "," + importMeta.library + "," + importMeta.file.file.getPath());
+		}
+
+		return depsHashOf(lines);
+	}
+
+	public static String depsHashOf(List<String> lines) {
+		var sorted = new ArrayList<>(lines);
+		sorted.sort(null);
+
+		return DigestUtils.md5Hex(String.join("\n", sorted));
+	}
+
+	public FilePair lookup(String key) {
+		// Any artifact of this key works to find out what it imports
+		var dir = new File(storeDir, key);
+		var names = dir.list((d, n) -> n.endsWith(".scopelib"));
+		if (names == null || names.length == 0) {
+			return null;
+		}
+
+		return new FilePair(storeDir, key + File.separator + names[0], RootType.CACHE);
+	}
+
+	public FilePair lookup(String key, String depsHash) {
+		var pair = new FilePair(storeDir, key + File.separator + depsHash + ".scopelib", RootType.CACHE);
+		return pair.toFile().exists() ? pair : null;
+	}
+
+	public void publish(String key, FasmAnalyzer analyzer, File artifact) {
+		var target = new File(storeDir, key + File.separator + depsHashOf(analyzer) + ".scopelib");
+		if (target.exists()) {
+			return;
+		}
+
+		// The store is only an optimization, so failing to write to it is fine
+		try {
+			Files.createDirectories(target.getParentFile().toPath());
+			var temp = Files.createTempFile(target.getParentFile().toPath(), "tmp", ".part");
+			Files.copy(artifact.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+			published = true;
+		} catch (IOException e) {
+			Utils.log("Could not add `" + artifact.getName() + "` to the build cache.");
+		}
+	}
+
+	public void restore(FilePair cached, FilePair target) throws IOException {
+		var targetFile = target.toFile();
+		Files.createDirectories(targetFile.getAbsoluteFile().getParentFile().toPath());
+
+		var temp = new File(targetFile.getPath() + ".part");
+		Files.copy(cached.toFile().toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(temp.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+
+		// Recently used, so it stays
+		cached.toFile().setLastModified(System.currentTimeMillis());
+	}
+
+	// Only the builds that added something can have made it too big
+	public void trimStore() {
+		if (published) {
+			trimStore(MAX_STORE_BYTES, MAX_STORE_AGE);
+		}
+	}
+
+	// Deletes what wasn't used for longer than `maxAge`, and then the least recently
+	// used artifacts until the rest fits into `maxBytes`
+	public void trimStore(long maxBytes, long maxAge) {
+		var keys = storeDir.listFiles(File::isDirectory);
+		if (keys == null) {
+			return;
+		}
+
+		var used = new HashMap<File, Long>();
+		long total = 0;
+		for (var key : keys) {
+			var artifacts = key.listFiles(File::isFile);
+			if (artifacts == null) {
+				continue;
+			}
+
+			for (var artifact : artifacts) {
+				used.put(artifact, artifact.lastModified());
+				total += artifact.length();
+			}
+		}
+
+		var oldestFirst = new ArrayList<>(used.keySet());
+		oldestFirst.sort(Comparator.comparing(used::get));
+
+		long cutoff = System.currentTimeMillis() - maxAge;
+		for (var artifact : oldestFirst) {
+			if (total <= maxBytes && used.get(artifact) >= cutoff) {
+				break;
+			}
+
+			// Other builds can be deleting the same files
+			long size = artifact.length();
+			if (artifact.delete()) {
+				total -= size;
+			}
+		}
+
+		// Only works for the ones that are empty now
+		for (var key : keys) {
+			key.delete();
+		}
+	}
+
+	private void loadStats() {
+		if (!statFile.exists()) {
+			return;
+		}
+
+		// Format: modified size md5 path
+		try (var reader = Files.newBufferedReader(statFile.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				var parts = line.split(" ", 4);
+				if (parts.length != 4) {
+					continue;
+				}
+
+				stats.put(parts[3], new StatEntry(Long.parseLong(parts[0]),
+					Long.parseLong(parts[1]), parts[2]));
+			}
+		} catch (Exception e) {
+			// Everything just gets hashed again
+			stats.clear();
+		}
+	}
+
+	public void saveStats() {
+		// Files changed in the last moments could change again without a new
+		// modification time, so they are always hashed next time
+		long racy = System.currentTimeMillis() - 2000;
+
+		var builder = new StringBuilder();
+		for (var stat : stats.entrySet()) {
+			var entry = stat.getValue();
+			if (entry.modified >= racy) {
+				continue;
+			}
+
+			builder.append(entry.modified).append(' ').append(entry.size).append(' ')
+				.append(entry.md5).append(' ').append(stat.getKey()).append('\n');
+		}
+
+		try {
+			Files.createDirectories(statFile.getParentFile().toPath());
+			var temp = new File(statFile.getPath() + ".part");
+			Files.writeString(temp.toPath(), builder, StandardCharsets.UTF_8);
+			Files.move(temp.toPath(), statFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Utils.log("Could not save `" + statFile.getName() + "`.");
+		}
+	}
+}
@@ -10,6 +10,7 @@ import org.apache.commons.io.FilenameUtils;
 import com.scopelang.*;
 import com.scopelang.FilePair.RootType;
 import com.scopelang.error.ErrorHandler;
+import com.scopelang.fasm.ConstFolder;
 import com.scopelang.fasm.FasmGenerator;
 import com.scopelang.metadata.*;
 import com.scopelang.preprocess.*;
@@ -24,10 +25,12 @@ public class CompileTask {
 	public FilePair source;
 	public FilePair output;
 	public Mode mode;
+	public ImportScheduler scheduler;
 
-	public CompileTask(FilePair source, Mode mode) {
+	public CompileTask(FilePair source, Mode mode, ImportScheduler scheduler) {
 		this.source = source;
 		this.mode = mode;
+		this.scheduler = scheduler;
 		output = convertSourceToCompiled(source, mode);
 	}
 
@@ -42,10 +45,24 @@ public class CompileTask {
 		modules.constGatherer = new ConstGatherer(modules);
 		modules.objectGatherer = new ObjectGatherer(modules);
 		modules.importManager = new ImportManager(modules);
-		modules.preprocessor = new Preprocessor(file);
+		try (var phase = Profiler.begin("preprocess", source)) {
+			modules.preprocessor = new Preprocessor(file);
+		}
 		modules.generator = new FasmGenerator(source, output.toFile(),
 			modules, mode != Mode.MAIN);
 
+		try {
+			compile(xml, modules, errorHandler);
+		} catch (Throwable e) {
+			// Don't leave a half written file behind for the next build to pick up
+			modules.generator.abort();
+			throw e;
+		}
+	}
+
+	private void compile(ScopeXml xml, Modules modules, ErrorHandler errorHandler) {
+		File file = source.toFile();
+
 		// Add `stdlib:Core` automatically (if stdlib is included)
 		if (xml.libraryInfoByName("stdlib") != null && mode == Mode.MAIN) {
 			modules.importManager.addRaw("stdlib:Core", xml);
@@ -65,80 +82,79 @@ public class CompileTask {
 			Utils.forceExit();
 		}
 
-		// Token process
+		// Lexing happens lazily, this only makes it show up on its own when profiling
 		CommonTokenStream stream = new CommonTokenStream(modules.lexer);
-		modules.tokenProcessor = new TokenProcessor(file, stream, xml, modules);
+		try (var phase = Profiler.begin("lex", source)) {
+			stream.fill();
+			phase.arg("tokens", stream.size());
+		}
 
-		modules.globalImports.addAll(modules.importManager.getAll());
-		analyzeImports(modules.importManager.getAll(), modules, xml);
+		// Token process
+		try (var phase = Profiler.begin("tokens", source)) {
+			modules.tokenProcessor = new TokenProcessor(file, stream, xml, modules);
+		}
+
+		try (var phase = Profiler.begin("imports", source)) {
+			modules.globalImports.addAll(modules.importManager.getAll());
+			analyzeImports(modules.importManager.getAll(), modules, xml);
+			phase.arg("imports", modules.globalImports.size());
+		}
 
 		// Parse
-		modules.parser = new ScopeParser(stream);
-		modules.parser.removeErrorListener(ConsoleErrorListener.INSTANCE);
-		modules.parser.addErrorListener(errorHandler);
-		ParseTree tree = modules.parser.program();
+		ParseTree tree;
+		try (var phase = Profiler.begin("parse", source)) {
+			modules.parser = new ScopeParser(stream);
+			modules.parser.removeErrorListener(ConsoleErrorListener.INSTANCE);
+			modules.parser.addErrorListener(errorHandler);
+			tree = modules.parser.program();
+
+			if (Profiler.isEnabled()) {
+				phase.arg("nodes", Profiler.nodeCount(tree));
+			}
+		}
 
 		if (errorHandler.errored) {
 			Utils.forceExit();
 		}
 
 		// Gather info
-		ParseTreeWalker.DEFAULT.walk(modules.objectGatherer, tree);
-		ParseTreeWalker.DEFAULT.walk(modules.constGatherer, tree);
-		ParseTreeWalker.DEFAULT.walk(modules.funcGatherer, tree);
+		try (var phase = Profiler.begin("gather objects", source)) {
+			ParseTreeWalker.DEFAULT.walk(modules.objectGatherer, tree);
+		}
+		try (var phase = Profiler.begin("gather consts", source)) {
+			ParseTreeWalker.DEFAULT.walk(modules.constGatherer, tree);
+		}
+		try (var phase = Profiler.begin("gather funcs", source)) {
+			ParseTreeWalker.DEFAULT.walk(modules.funcGatherer, tree);
+		}
 
 		// Generate
-		modules.generator.insertHeader();
-		ParseTreeWalker.DEFAULT.walk(modules.generator, tree);
-		modules.generator.finishGen();
+		try (var phase = Profiler.begin("generate", source)) {
+			modules.generator.insertHeader();
+			ParseTreeWalker.DEFAULT.walk(modules.generator, tree);
+			modules.generator.finishGen();
+		}
 
 		// Log
 		Utils.log("Generated and cached `" + output.toFile().getPath() + "`.");
 	}
 
 	private void analyzeImports(ArrayList<FilePair> imports, Modules modules, ScopeXml xml) {
-		for (var file : imports) {
-			var mode = xml.mode.equals("library") ? Mode.LIBRARY : Mode.IMPORT;
-
-			var asm = convertSourceToCompiled(file, mode);
-			boolean regen = false;
-
-			FasmAnalyzer analyzer = null;
-
-			if (!asm.toFile().exists()) {
-				Utils.log("`" + asm.toFile().getName() + "` doesn't exist. Generating.");
-				regen = true;
-			} else {
-				// Check for changes
-				var md5 = Utils.hashOf(file.toFile());
-				analyzer = new FasmAnalyzer(asm);
-				if (!md5.equals(analyzer.hash)) {
-					// Regen if so
-					Utils.log("Changed detected in `" + asm.toFile().getName() +
-						"`. Re-generating.");
-					analyzer = null;
-					regen = true;
-				}
-			}
-
-			if (regen) {
-				var task = new CompileTask(file, mode);
-				task.run(xml);
-			}
+		// Make sure everything is up to date (this can regenerate in parallel)
+		scheduler.ensureAll(imports, source);
 
+		for (var file : imports) {
 			// Merge everything
-
-			if (analyzer == null) {
-				analyzer = new FasmAnalyzer(asm);
-			}
+			var analyzer = scheduler.analyzerOf(file);
 
 			for (var func : analyzer.functions.entrySet()) {
 				modules.funcGatherer.addLibFunc(func.getKey(), func.getValue());
 			}
 
 			for (var constant : analyzer.constants.entrySet()) {
-				modules.constGatherer.addLibConst(constant.getKey(),
-					constant.getValue());
+				var value = analyzer.constantValues.get(constant.getKey());
+				modules.constGatherer.addLibConst(constant.getKey(), constant.getValue(),
+					value == null ? null : ConstFolder.Value.fromMetadata(constant.getValue(), value));
 			}
 
 			for (var object : analyzer.objects.entrySet()) {
@@ -147,18 +163,24 @@ public class CompileTask {
 			}
 
 			var newImports = new ArrayList<FilePair>();
-			for (var importMeta : analyzer.imports) {
-				if (modules.globalImports.contains(importMeta.file)) {
+			for (var importFile : scheduler.importsOf(file, analyzer)) {
+				if (modules.globalImports.contains(importFile)) {
 					continue;
 				}
 
-				newImports.add(importMeta.file);
-				modules.globalImports.add(importMeta.file);
+				newImports.add(importFile);
+				modules.globalImports.add(importFile);
 			}
 			analyzeImports(newImports, modules, xml);
 		}
 	}
 
+	// The file with the main file and all of its imports, which gets passed to FASM
+	public static FilePair convertSourceToLinked(FilePair file) {
+		String name = FilenameUtils.removeExtension(file.file.getPath());
+		return new FilePair(new File(file.root, ".cache"), name + ".scopeasm", RootType.CACHE);
+	}
+
 	public static FilePair convertSourceToCompiled(FilePair file, Mode mode) {
 		if (file.type == RootType.LIBRARY) {
 			mode = Mode.LIBRARY;
@@ -168,7 +190,7 @@ public class CompileTask {
 			String name = FilenameUtils.removeExtension(file.file.getPath());
 			return new FilePair(file.root, name + ".scopelib", RootType.LIBRARY);
 		} else {
-			String ext = mode == Mode.MAIN ? ".scopeasm" : ".scopelib";
+			String ext = mode == Mode.MAIN ? ".scopeunit" : ".scopelib";
 
 			String name = FilenameUtils.removeExtension(file.file.getPath());
 			return new FilePair(new File(file.root, ".cache"), name + ext, RootType.CACHE);
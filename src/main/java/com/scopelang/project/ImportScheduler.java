@@ -0,0 +1,303 @@
+package com.scopelang.project;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.scopelang.FilePair;
+import com.scopelang.FilePair.RootType;
+import com.scopelang.Utils;
+import com.scopelang.Utils.CapturedOutput;
+import com.scopelang.error.CompileError;
+import com.scopelang.metadata.FasmAnalyzer;
+import com.scopelang.project.CompileTask.Mode;
+
+public class ImportScheduler {
+	private class ImportTask extends RecursiveTask<FasmAnalyzer> {
+		private static final long serialVersionUID = 1L;
+
+		private FilePair file;
+		private Mode mode;
+		private CapturedOutput output = null;
+		private boolean reported = false;
+
+		public ImportTask(FilePair file, Mode mode) {
+			this.file = file;
+			this.mode = mode;
+		}
+
+		@Override
+		protected FasmAnalyzer compute() {
+			Utils.beginCapture();
+			try {
+				return generate();
+			} finally {
+				output = Utils.endCapture();
+			}
+		}
+
+		private FasmAnalyzer generate() {
+			var asm = CompileTask.convertSourceToCompiled(file, mode);
+			var md5 = cache.hashOf(file.toFile());
+
+			if (!asm.toFile().exists()) {
+				Utils.log("`" + asm.toFile().getName() + "` doesn't exist. Generating.");
+			} else if (!FasmAnalyzer.isComplete(asm)) {
+				Utils.log("`" + asm.toFile().getName() + "` is incomplete. Re-generating.");
+			} else if (!rebuildAll) {
+				// Check for changes
+				var analyzer = FasmAnalyzer.of(asm);
+				if (md5.equals(analyzer.hash) && cache.isCompatible(analyzer, file)
+					&& importsUpToDate(analyzer)) {
+
+					return analyzer;
+				}
+
+				Utils.log("Changed detected in `" + asm.toFile().getName() +
+					"`. Re-generating.");
+			}
+
+			// Someone might have compiled the exact same thing already
+			var key = cache.keyOf(file, mode, md5);
+			if (!rebuildAll) {
+				var restored = restore(key, asm);
+				if (restored != null) {
+					return restored;
+				}
+			}
+
+			// Regen (this schedules its own imports first)
+			var task = new CompileTask(file, mode, ImportScheduler.this);
+			task.run(xml);
+
+			var analyzer = FasmAnalyzer.of(asm);
+			cache.publish(key, analyzer, asm.toFile());
+			return analyzer;
+		}
+
+		private boolean importsUpToDate(FasmAnalyzer analyzer) {
+			// The imports might not be up to date themselves
+			var imports = importsOf(file, analyzer);
+			ensureAll(imports, file);
+
+			// Compare the interfaces it was compiled against with the current ones
+			for (int i = 0; i < imports.size(); i++) {
+				if (!analyzerOf(imports.get(i)).interfaceHash.equals(analyzer.imports.get(i).md5)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		private FasmAnalyzer restore(String key, FilePair asm) {
+			var any = cache.lookup(key);
+			if (any == null) {
+				return null;
+			}
+
+			// Same source means same imports, so only their interfaces are left to check
+			var imports = importsOf(file, FasmAnalyzer.of(any));
+			ensureAll(imports, file);
+
+			var lines = new ArrayList<String>();
+			var metas = FasmAnalyzer.of(any).imports;
+			for (int i = 0; i < imports.size(); i++) {
+				lines.add(analyzerOf(imports.get(i)).interfaceHash + "," + metas.get(i).library
+					+ "," + imports.get(i).file.getPath());
+			}
+
+			var cached = cache.lookup(key, BuildCache.depsHashOf(lines));
+			if (cached == null) {
+				return null;
+			}
+
+			try {
+				cache.restore(cached, asm);
+			} catch (IOException e) {
+				return null;
+			}
+
+			Utils.log("Restored `" + asm.toFile().getName() + "` from the build cache.");
+			return FasmAnalyzer.of(asm);
+		}
+	}
+
+	private ScopeXml xml;
+	public BuildCache cache;
+	private ForkJoinPool pool;
+	private boolean rebuildAll = false;
+
+	private ConcurrentHashMap<FilePair, ImportTask> tasks = new ConcurrentHashMap<>();
+	private HashMap<FilePair, HashSet<FilePair>> edges = new HashMap<>();
+
+	public ImportScheduler(ScopeXml xml, File root, int jobs) {
+		this(xml, root, jobs, false);
+	}
+
+	public ImportScheduler(ScopeXml xml, File root, int jobs, boolean rebuildAll) {
+		this.xml = xml;
+		this.rebuildAll = rebuildAll;
+		cache = new BuildCache(xml, root);
+		pool = new ForkJoinPool(jobs);
+	}
+
+	public void ensureAll(Collection<FilePair> files, FilePair requester) {
+		var pending = new ArrayList<ImportTask>();
+		for (var file : files) {
+			if (requester != null) {
+				addEdge(requester, file);
+			}
+			pending.add(taskFor(file));
+		}
+
+		// Imports that are independent of each other get regenerated at the same time.
+		// Every task is waited on, so a failing file never cuts its siblings short.
+		RuntimeException error = null;
+		try {
+			for (var task : pending) {
+				try {
+					task.join();
+				} catch (RuntimeException e) {
+					// A crash says more than an ordinary compile error, so it wins
+					if (error == null || (error instanceof CompileError && !(e instanceof CompileError))) {
+						error = e;
+					}
+				}
+			}
+		} finally {
+			// Only the outermost caller prints, which keeps the output in a stable order.
+			// This has to happen even on a crash, or the captured diagnostics are lost.
+			if (!Utils.isCapturing()) {
+				report();
+			}
+		}
+
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	// The main file is compiled like any other file, except that nothing can import it
+	public FasmAnalyzer ensureMain(FilePair file) {
+		taskFor(file, Mode.MAIN);
+		ensureAll(List.of(file), null);
+		return analyzerOf(file);
+	}
+
+	public FasmAnalyzer analyzerOf(FilePair file) {
+		return taskFor(file).join();
+	}
+
+	public List<FilePair> importsOf(FilePair file, FasmAnalyzer analyzer) {
+		// Imports are stored relative to the root of the file that imports them
+		var imports = new ArrayList<FilePair>();
+		for (var importMeta : analyzer.imports) {
+			if (importMeta.library == null) {
+				imports.add(new FilePair(file.root, importMeta.file.file, file.type));
+				continue;
+			}
+
+			// Libraries are found the same way `ImportManager` does it
+			var libInfo = xml.libraryInfoByName(importMeta.library);
+			if (libInfo == null) {
+				Utils.error("Library with name `" + importMeta.library + "` isn't added to the project.",
+					"`" + file.file.getPath() + "` was compiled with it. Try `scope clean`.");
+				Utils.forceExit();
+			}
+
+			imports.add(new FilePair(new File(file.root, libInfo.path), importMeta.file.file,
+				RootType.LIBRARY));
+		}
+
+		return imports;
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+		cache.saveStats();
+		cache.trimStore();
+	}
+
+	private void report() {
+		var finished = new ArrayList<ImportTask>();
+		for (var task : tasks.values()) {
+			if (task.isDone() && !task.reported) {
+				finished.add(task);
+			}
+		}
+
+		finished.sort(Comparator.comparing((ImportTask t) -> t.file.root.getPath())
+			.thenComparing(t -> t.file.file.getPath()));
+
+		for (var task : finished) {
+			task.reported = true;
+			if (task.output != null) {
+				task.output.print();
+			}
+		}
+	}
+
+	private ImportTask taskFor(FilePair file) {
+		return taskFor(file, xml.mode.equals("library") ? Mode.LIBRARY : Mode.IMPORT);
+	}
+
+	private ImportTask taskFor(FilePair file, Mode mode) {
+		var task = new ImportTask(file, mode);
+		var existing = tasks.putIfAbsent(file, task);
+		if (existing != null) {
+			return existing;
+		}
+
+		pool.execute(task);
+		return task;
+	}
+
+	private synchronized void addEdge(FilePair from, FilePair to) {
+		edges.computeIfAbsent(from, k -> new HashSet<>()).add(to);
+
+		// Waiting on a file that (indirectly) waits on us would never finish
+		var cycle = pathBetween(to, from, new HashSet<>());
+		if (cycle != null) {
+			cycle.addFirst(from);
+
+			String chain = "";
+			for (var file : cycle) {
+				if (!chain.isEmpty()) {
+					chain += " -> ";
+				}
+				chain += file.file.getPath();
+			}
+
+			Utils.error("Import cycle detected.",
+				chain,
+				"Try moving the shared code into a separate file that both can import.");
+			Utils.forceExit();
+		}
+	}
+
+	private LinkedList<FilePair> pathBetween(FilePair from, FilePair to, HashSet<FilePair> visited) {
+		if (from.equals(to)) {
+			var path = new LinkedList<FilePair>();
+			path.add(to);
+			return path;
+		}
+
+		if (!visited.add(from) || !edges.containsKey(from)) {
+			return null;
+		}
+
+		for (var next : edges.get(from)) {
+			var path = pathBetween(next, to, visited);
+			if (path != null) {
+				path.addFirst(from);
+				return path;
+			}
+		}
+
+		return null;
+	}
+}
@@ -4,13 +4,15 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 
 import org.apache.commons.io.FilenameUtils;
 
 import com.scopelang.FilePair;
+import com.scopelang.Profiler;
 import com.scopelang.Utils;
 import com.scopelang.FilePair.RootType;
-import com.scopelang.project.CompileTask.Mode;
+import com.scopelang.fasm.FasmLinker;
 
 import net.lingala.zip4j.ZipFile;
 import net.lingala.zip4j.model.ZipParameters;
@@ -22,6 +24,8 @@ public class ProjectCompileTask {
 	public File cacheDir = null;
 	public File libDir = null;
 
+	public int jobs = Runtime.getRuntime().availableProcessors();
+
 	public ProjectCompileTask(File root, ScopeXml xml) {
 		this.xml = xml;
 		workingDir = root;
@@ -75,18 +79,35 @@ public class ProjectCompileTask {
 		// Compile main file to FASM
 		File main = pathRelativeToWorkingDir(xml.mainFile.toPath()).toFile();
 		var source = new FilePair(workingDir, main, RootType.NORMAL);
-		CompileTask task = new CompileTask(source, Mode.MAIN);
-		task.run(xml);
+		var asm = CompileTask.convertSourceToLinked(source);
+		var scheduler = new ImportScheduler(xml, workingDir, jobs);
+		boolean changed;
+		try {
+			// Only re-generated when it or the interfaces of its imports changed,
+			// the code of the imports is always linked in fresh
+			var unit = scheduler.ensureMain(source);
+			changed = new FasmLinker(scheduler).link(source, unit, asm);
+		} finally {
+			scheduler.shutdown();
+		}
 
-		// Remove old exe
+		// FASM is by far the slowest part, so don't run it for nothing
 		File exe = new File(workingDir, FilenameUtils.removeExtension(main.getPath()) + ".out");
+		if (!changed && exe.exists()) {
+			Utils.log("`" + exe.getName() + "` is up to date.");
+			return exe;
+		}
+
+		// Remove old exe
 		exe.delete();
 
 		// Convert FASM to executable
 		String exeName = exe.getAbsolutePath();
 		Utils.log("Compiling executable to `" + exeName + "`.");
-		Utils.runCmdAndWait("fasm", task.output.toFile().getAbsolutePath(), exeName);
-		Utils.runCmdAndWait("chmod", "+x", exeName);
+		try (var phase = Profiler.begin("fasm", source)) {
+			Utils.runCmdAndWait("fasm", asm.toFile().getAbsolutePath(), exeName);
+			Utils.runCmdAndWait("chmod", "+x", exeName);
+		}
 
 		// Error is FASM failed
 		if (!exe.exists()) {
@@ -99,18 +120,16 @@ public class ProjectCompileTask {
 	}
 
 	private File runLibrary() {
-		// Compile all files
-		try {
-			var sourceFiles = Files.walk(workingDir.toPath())
-				.filter(Files::isRegularFile).map(i -> i.toFile());
-			for (File f : sourceFiles.toArray(File[]::new)) {
-				if (f.getName().endsWith(".scope")) {
-					File main = pathRelativeToWorkingDir(f.toPath()).toFile();
-					var source = new FilePair(workingDir, main, RootType.NORMAL);
-					CompileTask task = new CompileTask(source, Mode.LIBRARY);
-					task.run(xml);
-				}
-			}
+		// Compile all files (each one produces its own `.scopelib`, so they can run in parallel)
+		var sources = new ArrayList<FilePair>();
+		try (var paths = Files.walk(workingDir.toPath())) {
+			paths.filter(Files::isRegularFile)
+				.filter(p -> p.getFileName().toString().endsWith(".scope"))
+				.sorted()
+				.forEach(p -> {
+					File main = pathRelativeToWorkingDir(p).toFile();
+					sources.add(new FilePair(workingDir, main, RootType.NORMAL));
+				});
 		} catch (Exception e) {
 			Utils.error("Could not locate source files.",
 				"Use `-f` for more info.");
@@ -119,6 +138,13 @@ public class ProjectCompileTask {
 			}
 		}
 
+		var scheduler = new ImportScheduler(xml, workingDir, jobs, true);
+		try {
+			scheduler.ensureAll(sources, null);
+		} finally {
+			scheduler.shutdown();
+		}
+
 		// Delete old zip file
 		var zipFile = new File(workingDir, xml.name + ".zip");
 		zipFile.delete();
@@ -0,0 +1,177 @@
+package com.scopelang.project;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.scopelang.Profiler;
+import com.scopelang.Utils;
+import com.scopelang.error.CompileError;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+// Rebuilds the project every time a file in it (or in a library it uses) changes.
+// Everything stays in this process, so the ANTLR caches and analyzed metadata stay warm.
+public class ProjectWatcher {
+	// Editors often write a file in multiple steps, so wait for it to be quiet for this long
+	private static final long DEBOUNCE_MS = 100;
+
+	private File xmlFile;
+	private int jobs;
+	// The options from the command line
+	private ScopeXml options;
+
+	private WatchService watcher;
+	private HashMap<WatchKey, Path> keys = new HashMap<>();
+
+	public ProjectWatcher(File xmlFile, int jobs, ScopeXml options) {
+		this.xmlFile = xmlFile;
+		this.jobs = jobs;
+		this.options = options;
+	}
+
+	public void run() {
+		try (var service = FileSystems.getDefault().newWatchService()) {
+			watcher = service;
+
+			var task = build();
+			register(xmlFile.getParentFile().toPath());
+			registerLibraries(task);
+
+			System.out.println("Watching `" + xmlFile.getParentFile().getPath() + "` for changes.");
+
+			while (true) {
+				if (!waitForChanges()) {
+					break;
+				}
+
+				task = build();
+				registerLibraries(task);
+			}
+		} catch (IOException e) {
+			Utils.error("Could not watch the project for changes.",
+				"Use `-f` for more info.");
+			if (!Utils.disableLog) {
+				e.printStackTrace();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private ProjectCompileTask build() {
+		long start = System.nanoTime();
+
+		// `scope.xml` is read again in case it changed too
+		ProjectCompileTask task = null;
+		boolean failed = false;
+		try {
+			var xml = new ScopeXml(xmlFile);
+			xml.copyOptionsFrom(options);
+			task = new ProjectCompileTask(xmlFile.getParentFile(), xml);
+			task.jobs = jobs;
+			task.run();
+		} catch (CompileError e) {
+			System.err.println(e.getMessage());
+			failed = true;
+		}
+
+		long ms = (System.nanoTime() - start) / 1_000_000;
+		System.out.println((failed ? "Build failed" : "Built") + " in " + ms + " ms.");
+
+		// Every iteration gets its own profile
+		if (Profiler.isEnabled()) {
+			Profiler.finish(new File(xmlFile.getParentFile(), "scope-profile.json"));
+			Profiler.start();
+		}
+
+		return task;
+	}
+
+	private boolean waitForChanges() throws InterruptedException {
+		boolean relevant = false;
+		while (!relevant) {
+			WatchKey key = watcher.take();
+			relevant |= handle(key);
+
+			// Collect everything else that is part of the same change
+			while ((key = watcher.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+				relevant |= handle(key);
+			}
+
+			if (keys.isEmpty()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	// Returns true if a file that matters for the build changed
+	private boolean handle(WatchKey key) {
+		var dir = keys.get(key);
+		boolean relevant = false;
+
+		for (var event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				relevant = true;
+				continue;
+			}
+
+			var path = dir.resolve((Path) event.context());
+			var name = path.getFileName().toString();
+			if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+				register(path);
+			}
+
+			if (name.endsWith(".scope") || name.equals("scope.xml")) {
+				relevant = true;
+			}
+		}
+
+		if (!key.reset()) {
+			keys.remove(key);
+		}
+
+		return relevant;
+	}
+
+	private void registerLibraries(ProjectCompileTask task) {
+		if (task == null) {
+			return;
+		}
+
+		for (var lib : task.xml.libraries) {
+			var dir = new File(xmlFile.getParentFile(), lib.path).toPath();
+			if (Files.isDirectory(dir)) {
+				register(dir);
+			}
+		}
+	}
+
+	private void register(Path root) {
+		try {
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					// Generated files would make every build start another one
+					if (dir.getFileName() != null && dir.getFileName().toString().equals(".cache")) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+
+					var normalized = dir.toAbsolutePath().normalize();
+					if (!keys.containsValue(normalized)) {
+						keys.put(normalized.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), normalized);
+					}
+
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			Utils.warn("Could not watch `" + root + "`.");
+		}
+	}
+}
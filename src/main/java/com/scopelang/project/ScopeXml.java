@@ -5,6 +5,7 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.TreeSet;
 
 import javax.xml.parsers.*;
 
@@ -15,6 +16,7 @@ import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 
 import com.scopelang.Utils;
+import com.scopelang.ir.PassManager;
 
 import net.lingala.zip4j.ZipFile;
 
@@ -34,6 +36,12 @@ public class ScopeXml {
 	public String name = null;
 	public ArrayList<LibraryInfo> libraries = new ArrayList<>();
 
+	// Not part of the file, set with `-O`, `--pass`, `--disable-rules` and `--emit-diff`
+	public int optLevel = PassManager.DEFAULT_LEVEL;
+	public TreeSet<String> passToggles = new TreeSet<>();
+	public TreeSet<String> disabledRules = new TreeSet<>();
+	public boolean emitDiff = false;
+
 	public ScopeXml(File file) {
 		try {
 			parse(file);
@@ -261,6 +269,25 @@ public class ScopeXml {
 		return true;
 	}
 
+	// Only the settings that change how files get compiled
+	// The ones that came from the command line instead of the file
+	public void copyOptionsFrom(ScopeXml other) {
+		optLevel = other.optLevel;
+		passToggles = other.passToggles;
+		disabledRules = other.disabledRules;
+		emitDiff = other.emitDiff;
+	}
+
+	public String settingsHash() {
+		var settings = new ArrayList<String>();
+		settings.add("mode," + mode);
+		for (var lib : libraries) {
+			settings.add("library," + lib.type + "," + lib.path);
+		}
+
+		return DigestUtils.md5Hex(String.join("\n", settings));
+	}
+
 	public LibraryInfo libraryInfoByName(String name) {
 		for (var lib : libraries) {
 			if (lib.name.equals(name)) {
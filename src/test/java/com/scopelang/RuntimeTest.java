@@ -0,0 +1,94 @@
+package com.scopelang;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+public class RuntimeTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// Builds and runs one of the programs in `runtime/`, which needs fasm
+	private String run(String program, String... flags) throws Exception {
+		try {
+			new ProcessBuilder("fasm").redirectErrorStream(true).start().waitFor();
+		} catch (IOException e) {
+			Assume.assumeNoException("fasm is not installed", e);
+		}
+
+		var dir = folder.newFolder("app");
+		Files.writeString(new File(dir, "scope.xml").toPath(),
+			"<scope>\n\t<mode>project</mode>\n\t<main>Main.scope</main>\n</scope>\n");
+		try (var in = getClass().getResourceAsStream("runtime/" + program)) {
+			Files.write(new File(dir, "Main.scope").toPath(), in.readAllBytes());
+		}
+
+		var java = new File(System.getProperty("java.home"), "bin/java").getPath();
+		var command = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path"),
+			Scope.class.getName(), "run", "-d", dir.getPath()));
+		command.addAll(List.of(flags));
+		var builder = new ProcessBuilder(command);
+		builder.environment().put("XDG_CACHE_HOME", folder.newFolder("cache").getPath());
+		builder.redirectErrorStream(true);
+
+		var process = builder.start();
+		var output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+		process.waitFor();
+		return output;
+	}
+
+	@Test
+	public void collectorKeepsWhatAssemblyAllocated() throws Exception {
+		// The string is only reachable through memory that assembly got by moving `curpkg`
+		// itself, so it has to outlive every collection after that
+		var output = run("ForeignAlloc.scope");
+
+		Assert.assertTrue(output, output.endsWith("4242-held 9088890\n"));
+	}
+
+	@Test
+	public void collectorKeepsLiveBlocks() throws Exception {
+		var output = run("LiveBlocks.scope");
+
+		Assert.assertTrue(output, output.endsWith("ab\n"));
+	}
+
+	@Test
+	public void arrayElementsCanCallFunctions() throws Exception {
+		// Without inlining, so the calls really happen
+		var output = run("ArrayInitCalls.scope", "-O0");
+
+		Assert.assertTrue(output, output.endsWith("oneother one other ok\n"));
+	}
+
+	@Test
+	public void registersSurviveCalls() throws Exception {
+		var output = run("RegisterCalls.scope", "-O1");
+
+		Assert.assertTrue(output, output.endsWith("ok\n"));
+	}
+
+	@Test
+	public void stepIsNotEvaluatedWithoutIterations() throws Exception {
+		// Hoisting `1 / z` out of the loop would divide by zero
+		var output = run("ZeroTripStep.scope", "-O1");
+
+		Assert.assertTrue(output, output.endsWith("done\n"));
+	}
+
+	@Test
+	public void faultsFlushOutput() throws Exception {
+		// Not a terminal, so "before" is still buffered when dividing by zero
+		var output = run("FaultFlush.scope", "-O0");
+
+		Assert.assertTrue(output, output.contains("before\n"));
+		Assert.assertFalse(output, output.contains("after"));
+		Assert.assertTrue(output, output.contains("exit code: 136"));
+	}
+}
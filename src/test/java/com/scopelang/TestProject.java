@@ -0,0 +1,81 @@
+package com.scopelang;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import com.scopelang.FilePair.RootType;
+import com.scopelang.error.CompileError;
+import com.scopelang.project.CompileTask;
+import com.scopelang.project.CompileTask.Mode;
+import com.scopelang.project.ImportScheduler;
+import com.scopelang.project.ScopeXml;
+
+// A project with a single file, compiled in this JVM up to the assembly of that file
+public class TestProject {
+	public File root;
+	public ScopeXml xml;
+
+	// The errors and warnings of the last compile
+	public String messages = "";
+	// Otherwise imports that are up to date are used as they are
+	public boolean rebuildAll = true;
+
+	public TestProject(File root, String source) throws IOException {
+		this.root = root;
+		Files.writeString(new File(root, "scope.xml").toPath(),
+			"<scope>\n\t<mode>project</mode>\n\t<main>Main.scope</main>\n</scope>\n");
+		Files.writeString(new File(root, "Main.scope").toPath(), source);
+		Files.createDirectories(new File(root, ".cache").toPath());
+
+		xml = new ScopeXml(new File(root, "scope.xml"));
+	}
+
+	// `toggles` are the same as the ones of `--pass`. Null if it didn't compile.
+	public String compile(int level, String... toggles) throws IOException {
+		xml.optLevel = level;
+		xml.passToggles.clear();
+		xml.passToggles.addAll(List.of(toggles));
+
+		var source = new FilePair(root, "Main.scope", RootType.NORMAL);
+		var scheduler = new ImportScheduler(xml, root, 1, rebuildAll);
+		scheduler.cache.storeDir = new File(root, "store");
+
+		var err = System.err;
+		var captured = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(captured, true, StandardCharsets.UTF_8));
+		try {
+			scheduler.ensureMain(source);
+		} catch (CompileError e) {
+			return null;
+		} finally {
+			System.setErr(err);
+			messages = captured.toString(StandardCharsets.UTF_8);
+			scheduler.shutdown();
+		}
+
+		var unit = CompileTask.convertSourceToCompiled(source, Mode.MAIN).toFile();
+		return Files.readString(unit.toPath(), StandardCharsets.UTF_8);
+	}
+
+	// The instructions of a function, one per line without the indentation
+	public static String function(String asm, String name) {
+		var body = new StringBuilder();
+		boolean inside = false;
+		for (var line : asm.split("\n")) {
+			if (line.equals("f_" + name + ":")) {
+				inside = true;
+			} else if (inside && (line.isEmpty() || line.startsWith(";"))) {
+				break;
+			} else if (inside) {
+				body.append(line.strip()).append('\n');
+			}
+		}
+
+		return body.toString();
+	}
+}
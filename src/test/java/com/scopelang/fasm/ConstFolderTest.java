@@ -0,0 +1,101 @@
+package com.scopelang.fasm;
+
+import java.util.regex.Pattern;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import com.scopelang.TestProject;
+
+public class ConstFolderTest {
+	private static final Pattern STRING = Pattern.compile("lea rdi, \\[(s_\\w+)\\]");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// The function `f` of `source`, compiled with folding only
+	private String compile(String source) throws Exception {
+		var project = new TestProject(folder.getRoot(), source + "\nfunc void main() {\n}\n");
+		var asm = project.compile(0, "+fold");
+		Assert.assertNotNull(project.messages, asm);
+		return asm;
+	}
+
+	private String f(String type, String expr) throws Exception {
+		return TestProject.function(compile("func " + type + " f() {\n\tret " + expr + ";\n}\n"), "f");
+	}
+
+	// The bytes of the string that `f` returns
+	private String string(String expr) throws Exception {
+		var asm = compile("func str f() {\n\tret " + expr + ";\n}\n");
+		var matcher = STRING.matcher(TestProject.function(asm, "f"));
+		Assert.assertTrue(asm, matcher.find());
+
+		var lines = asm.split("\n");
+		for (int i = 0; i < lines.length - 1; i++) {
+			if (lines[i].startsWith(matcher.group(1) + " ")) {
+				return lines[i + 1].strip();
+			}
+		}
+
+		Assert.fail(asm);
+		return null;
+	}
+
+	@Test
+	public void ints() throws Exception {
+		Assert.assertEquals("fstart 0\nmov rdi, QWORD 41\nfreturn\nret\n", f("int", "6 * 7 + 1 - 2"));
+		Assert.assertTrue(f("int", "-(3 - 10) / 2 % 3").contains("mov rdi, QWORD 0\n"));
+		Assert.assertTrue(f("int", "9223372036854775807 + 1").contains("mov rdi, QWORD -9223372036854775808\n"));
+	}
+
+	@Test
+	public void trapsStayAtRuntime() throws Exception {
+		Assert.assertTrue(f("int", "1 / 0").contains("idiv"));
+		Assert.assertTrue(f("int", "5 % 0").contains("idiv"));
+		Assert.assertTrue(f("int", "-9223372036854775808 / -1").contains("idiv"));
+		Assert.assertTrue(f("int", "-9223372036854775808 % -1").contains("idiv"));
+	}
+
+	@Test
+	public void decs() throws Exception {
+		Assert.assertTrue(f("dec", "1.5 * 2.0").contains("mov rdi, QWORD 0x4008000000000000\n"));
+		Assert.assertTrue(f("dec", "7 -> dec").contains("mov rdi, QWORD 0x401c000000000000\n"));
+		Assert.assertTrue(f("int", "2.9 -> int").contains("mov rdi, QWORD 2\n"));
+		// `0.0 - 0.0`, not `-0.0`
+		Assert.assertTrue(f("dec", "-(1.0 - 1.0)").contains("mov rdi, QWORD 0x0\n"));
+	}
+
+	@Test
+	public void nanStaysAtRuntime() throws Exception {
+		Assert.assertTrue(f("dec", "nan + 1.0").contains("addsd"));
+		Assert.assertTrue(f("dec", "infinity - infinity").contains("subsd"));
+		Assert.assertTrue(f("dec", "1.0 / 0.0").contains("divsd"));
+		Assert.assertTrue(f("int", "nan -> int").contains("cvttsd2si"));
+	}
+
+	@Test
+	public void bools() throws Exception {
+		Assert.assertTrue(f("bool", "true & !false").contains("mov rdi, QWORD 1\n"));
+		Assert.assertTrue(f("bool", "3 < 2 | false").contains("mov rdi, QWORD 0\n"));
+		Assert.assertTrue(f("bool", "1.5 >= 1.5").contains("mov rdi, QWORD 1\n"));
+		Assert.assertTrue(f("bool", "\"a\" + \"b\" == \"ab\"").contains("mov rdi, QWORD 1\n"));
+	}
+
+	@Test
+	public void strings() throws Exception {
+		Assert.assertEquals("db 97, 98, 99, 100", string("\"ab\" + \"cd\""));
+		Assert.assertTrue(f("str", "\"\" + \"\"").contains("lea rdi, [s_empty]\n"));
+		Assert.assertTrue(f("int", "(\"ab\" + \"c\").length").contains("mov rdi, QWORD 3\n"));
+	}
+
+	@Test
+	public void escapesInConcat() throws Exception {
+		// Not the octal escape `\123`
+		Assert.assertEquals("db 1, 50, 51", string("\"\\1\" + \"23\""));
+		Assert.assertEquals("db 92, 110", string("\"\\\\\" + \"n\""));
+		Assert.assertEquals("db 47, 9, 10", string("\"/\" + \"\\t\\n\""));
+		Assert.assertEquals("db -61, -87, 33", string("\"é\" + \"!\""));
+		Assert.assertTrue(f("int", "(\"\\t\" + \"\\u00e9\").length").contains("mov rdi, QWORD 3\n"));
+	}
+}
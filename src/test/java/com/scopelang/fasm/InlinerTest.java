@@ -0,0 +1,147 @@
+package com.scopelang.fasm;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import com.scopelang.FilePair;
+import com.scopelang.TestProject;
+import com.scopelang.FilePair.RootType;
+import com.scopelang.metadata.MetadataIndex;
+import com.scopelang.project.CompileTask;
+import com.scopelang.project.CompileTask.Mode;
+
+public class InlinerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TestProject project;
+
+	// `main` of `source`, compiled with inlining only
+	private String main(String source) throws Exception {
+		project = new TestProject(folder.newFolder(), source);
+		var asm = project.compile(0, "+inline");
+		Assert.assertNotNull(project.messages, asm);
+		return TestProject.function(asm, "main");
+	}
+
+	private void assertNotInlined(String function, String reason) throws Exception {
+		var main = main("inline " + function + "\n\nfunc int g() {\n\tret 1;\n}\n\n"
+			+ "func void main() {\n\tint k = f(2);\n}\n");
+
+		Assert.assertTrue(main, main.contains("call f_f\n"));
+		Assert.assertTrue(project.messages, project.messages.contains("can't be inlined, " + reason + "."));
+	}
+
+	@Test
+	public void whyNot() throws Exception {
+		assertNotInlined("func int f(int x) {\n\tret x + g();\n}", "it calls `g`");
+		assertNotInlined("func int f(int x) {\n\tret \"ab\".length + x;\n}", "it uses a string literal");
+		assertNotInlined("func int f(int x) {\n\tint y = x;\n\tret y;\n}", "its body is more than a `ret` of a value");
+		assertNotInlined("func int f(int x) {\n\tret new int[] { x }[0];\n}", "it allocates");
+		assertNotInlined("func int f(int x) {\n\tret x + K;\n}\n\nconst int K = 3;", "it uses `K`, which isn't a parameter");
+	}
+
+	@Test
+	public void inlined() throws Exception {
+		var main = main("func int f(int x, int y) {\n\tret x * y - 1;\n}\n\nfunc void main() {\n\tint k = f(2, 3);\n}\n");
+
+		Assert.assertFalse(main, main.contains("call f_f"));
+		Assert.assertTrue(main, main.contains("imul"));
+		Assert.assertEquals("", project.messages);
+	}
+
+	@Test
+	public void maxNodes() throws Exception {
+		var big = new StringBuilder("x");
+		for (int i = 0; i < 20; i++) {
+			big.append(" + x");
+		}
+		var source = "func int f(int x) {\n\tret " + big + ";\n}\n\nfunc void main() {\n\tint k = f(2);\n}\n";
+
+		// Too big to be worth it on its own
+		Assert.assertTrue(main(source).contains("call f_f\n"));
+		// Unless asked for
+		Assert.assertFalse(main("inline " + source).contains("call f_f\n"));
+	}
+
+	@Test
+	public void argumentsInOrder() throws Exception {
+		var main = main("func int sub(int x, int y) {\n\tret y - x;\n}\n\n"
+			+ "func int first(int x, int y) {\n\tret x;\n}\n\n"
+			+ "func int a() {\n\tint r = 1;\n\tret r;\n}\n\n"
+			+ "func int b() {\n\tint r = 2;\n\tret r;\n}\n\n"
+			+ "func void main() {\n\tint k = sub(a(), b());\n\tint l = first(3, b());\n}\n");
+
+		Assert.assertFalse(main, main.contains("call f_sub"));
+		Assert.assertFalse(main, main.contains("call f_first"));
+
+		// In the order they are written in, even though the body uses them the other way around
+		int a = main.indexOf("call f_a\n");
+		int b = main.indexOf("call f_b\n");
+		Assert.assertTrue(main, a != -1 && a < b);
+		// And even if the body doesn't use them
+		Assert.assertTrue(main, main.indexOf("call f_b\n", b + 1) != -1);
+	}
+
+	@Test
+	public void typeErrors() throws Exception {
+		var source = "func int twice(int x) {\n\tret x * 2;\n}\n\nfunc void main() {\n\tint k = twice(ARG);\n}\n";
+
+		for (var arg : new String[] { "\"a\"", "1.5", "true" }) {
+			project = new TestProject(folder.newFolder(), source.replace("ARG", arg));
+			Assert.assertNull(project.compile(0, "+inline", "+fold"));
+			Assert.assertTrue(project.messages,
+				project.messages.contains("Argument 1 does not have the correct type of `int`."));
+		}
+	}
+
+	@Test
+	public void inlineIsOnlyAKeywordBeforeFunc() throws Exception {
+		var main = main("func int inline(int inline) {\n\tret inline + 1;\n}\n\n"
+			+ "func void main() {\n\tint inline = 40;\n\tinline = inline(inline);\n}\n");
+
+		Assert.assertFalse(main, main.contains("call f_inline"));
+		Assert.assertEquals("", project.messages);
+	}
+
+	@Test
+	public void onlyWithThePass() throws Exception {
+		var source = "inline func int f(int x) {\n\tint y = x;\n\tret y;\n}\n\n"
+			+ "func int g(int x) {\n\tret x + 1;\n}\n\n"
+			+ "func void main() {\n\tint k = f(2) + g(3);\n}\n";
+
+		for (var toggles : new String[][] { {}, { "-inline" } }) {
+			project = new TestProject(folder.newFolder(), source);
+			var asm = project.compile(toggles.length == 0 ? 0 : 1, toggles);
+
+			Assert.assertNotNull(project.messages, asm);
+			Assert.assertEquals("", project.messages);
+			Assert.assertTrue(asm, asm.contains("call f_g\n"));
+		}
+	}
+
+	@Test
+	public void importedBodiesReportAtTheCall() throws Exception {
+		project = new TestProject(folder.getRoot(), "import \"Other\";\n\nfunc void main() {\n\tint k = twice(2);\n}\n");
+		Files.writeString(new File(folder.getRoot(), "Other.scope").toPath(),
+			"\n\n\n\n\nfunc int twice(int x) {\n\tret x * 2;\n}\n");
+		Assert.assertNotNull(project.messages, project.compile(0, "+inline"));
+
+		// A body that doesn't type check, which the file it came from never had
+		var unit = CompileTask.convertSourceToCompiled(new FilePair(folder.getRoot(), "Other.scope", RootType.NORMAL),
+			Mode.IMPORT).toFile();
+		var text = Files.readString(unit.toPath(), StandardCharsets.UTF_8);
+		Assert.assertTrue(text, text.contains(";@INLINE,twice,x * 2,x\n"));
+		Files.writeString(unit.toPath(), text.replace(";@INLINE,twice,x * 2,x\n", ";@INLINE,twice,x * true,x\n"));
+		MetadataIndex.indexFileOf(unit).delete();
+
+		project.rebuildAll = false;
+		Assert.assertNull(project.compile(0, "+inline"));
+		Assert.assertTrue(project.messages, project.messages.contains("Main.scope:4:"));
+		Assert.assertFalse(project.messages, project.messages.contains("Main.scope:1:"));
+	}
+}
@@ -0,0 +1,39 @@
+package com.scopelang.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Functions written the way `Instruction.toString` prints them, for testing passes
+final class Ir {
+	private Ir() {
+	}
+
+	public static IrFunction parse(String... lines) {
+		var function = new IrFunction("f_test");
+		for (var line : lines) {
+			Instruction instruction;
+			if (line.startsWith("load ")) {
+				instruction = Instruction.load(1, Integer.parseInt(line.substring(5)));
+			} else if (line.startsWith("store ")) {
+				instruction = Instruction.store(1, Integer.parseInt(line.substring(6)));
+			} else if (line.equals("return")) {
+				instruction = new Instruction(Instruction.Kind.RETURN, 1);
+			} else {
+				instruction = Instruction.parse(1, line);
+			}
+
+			function.instructions.add(instruction);
+		}
+
+		return function;
+	}
+
+	public static List<String> lines(IrFunction function) {
+		var lines = new ArrayList<String>();
+		for (var instruction : function.instructions) {
+			lines.add(instruction.toString());
+		}
+
+		return lines;
+	}
+}
@@ -0,0 +1,46 @@
+package com.scopelang.ir;
+
+import java.util.Set;
+
+import org.junit.*;
+
+public class PassManagerTest {
+	@Test
+	public void nothingByDefault() {
+		var passes = new PassManager(PassManager.DEFAULT_LEVEL, Set.of(), Set.of());
+
+		for (var pass : PassManager.PASSES) {
+			Assert.assertFalse(pass, passes.enabled(pass));
+		}
+	}
+
+	@Test
+	public void levels() {
+		var o1 = new PassManager(1, Set.of(), Set.of());
+		var o2 = new PassManager(2, Set.of(), Set.of());
+
+		for (var pass : PassManager.PASSES) {
+			Assert.assertEquals(pass, !pass.equals("repeat"), o1.enabled(pass));
+			Assert.assertTrue(pass, o2.enabled(pass));
+		}
+	}
+
+	@Test
+	public void hoistingAndAddressingAreTheirOwnPasses() {
+		var passes = new PassManager(2, Set.of("-hoist", "-addressing"), Set.of());
+
+		Assert.assertFalse(passes.enabled("hoist"));
+		Assert.assertFalse(passes.enabled("addressing"));
+		Assert.assertTrue(passes.enabled("inline"));
+		Assert.assertTrue(passes.enabled("regalloc"));
+	}
+
+	@Test
+	public void turnedOnBelowTheirLevel() {
+		var passes = new PassManager(0, Set.of("+hoist", "+repeat"), Set.of());
+
+		Assert.assertTrue(passes.enabled("hoist"));
+		Assert.assertTrue(passes.enabled("repeat"));
+		Assert.assertFalse(passes.enabled("addressing"));
+	}
+}
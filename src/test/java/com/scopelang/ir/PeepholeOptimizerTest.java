@@ -0,0 +1,119 @@
+package com.scopelang.ir;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.*;
+
+import com.scopelang.FilePair;
+import com.scopelang.FilePair.RootType;
+
+public class PeepholeOptimizerTest {
+	private static final FilePair SOURCE = new FilePair(new File("."), "Test.scope", RootType.NORMAL);
+
+	// Runs a single rule, so the others don't change what it produced
+	private static List<String> only(String rule, String... lines) {
+		var disabled = new HashSet<>(PeepholeOptimizer.ruleNames());
+		Assert.assertTrue(rule, disabled.remove(rule));
+
+		var function = Ir.parse(lines);
+		new PeepholeOptimizer(disabled).run(function);
+		return Ir.lines(function);
+	}
+
+	@Test
+	public void everyRuleIsTested() {
+		Assert.assertEquals(List.of("store-load", "push-pop", "forward-move", "dead-move", "setcc-branch",
+			"const-branch"), PeepholeOptimizer.ruleNames());
+	}
+
+	@Test
+	public void storeLoad() {
+		Assert.assertEquals(List.of("store 3", "call f_x"),
+			only("store-load", "store 3", "load 3", "call f_x"));
+		Assert.assertEquals(List.of("store 3", "load 4"),
+			only("store-load", "store 3", "load 4"));
+	}
+
+	@Test
+	public void pushPop() {
+		Assert.assertEquals(List.of("mov rsi, rdi", "call print"),
+			only("push-pop", "push rdi", "pop rsi", "call print"));
+		Assert.assertEquals(List.of("mov rsi, rdi", "mov rdi, QWORD 5"),
+			only("push-pop", "push rdi", "mov rdi, QWORD 5", "pop rsi"));
+		Assert.assertEquals(List.of("call print"),
+			only("push-pop", "push rdi", "pop rdi", "call print"));
+
+		// What is in between needs the register, or the stack
+		Assert.assertEquals(List.of("push rdi", "mov rsi, QWORD 5", "pop rsi"),
+			only("push-pop", "push rdi", "mov rsi, QWORD 5", "pop rsi"));
+		Assert.assertEquals(List.of("push rdi", "call f_x", "pop rsi"),
+			only("push-pop", "push rdi", "call f_x", "pop rsi"));
+	}
+
+	@Test
+	public void forwardMove() {
+		Assert.assertEquals(List.of("mov rsi, QWORD 10", "mov rdi, QWORD 2"),
+			only("forward-move", "mov rdi, QWORD 10", "mov rsi, rdi", "mov rdi, QWORD 2"));
+		Assert.assertEquals(List.of("vlist_get rsi, 2", "mov rdi, QWORD 1"),
+			only("forward-move", "load 2", "mov rsi, rdi", "mov rdi, QWORD 1"));
+
+		// `rdi` is still needed
+		Assert.assertEquals(List.of("mov rdi, QWORD 10", "mov rsi, rdi", "call f_x"),
+			only("forward-move", "mov rdi, QWORD 10", "mov rsi, rdi", "call f_x"));
+	}
+
+	@Test
+	public void deadMove() {
+		Assert.assertEquals(List.of("mov rsi, QWORD 2", "call f_x"),
+			only("dead-move", "mov rsi, QWORD 1", "mov rsi, QWORD 2", "call f_x"));
+		Assert.assertEquals(List.of("call f_x"),
+			only("dead-move", "mov rdi, rdi", "call f_x"));
+
+		// Read by the `add` first
+		Assert.assertEquals(List.of("mov rsi, QWORD 1", "add rdi, rsi", "mov rsi, QWORD 2", "call f_x"),
+			only("dead-move", "mov rsi, QWORD 1", "add rdi, rsi", "mov rsi, QWORD 2", "call f_x"));
+	}
+
+	@Test
+	public void setccBranch() {
+		Assert.assertEquals(List.of("cmp rdi, rsi", "jge .l0", ".l0:"),
+			only("setcc-branch", "cmp rdi, rsi", "setl al", "movzx rdi, al", "cmp rdi, 0", "je .l0", ".l0:"));
+		Assert.assertEquals(List.of("cmp rdi, rsi", "jl .l0", ".l0:"),
+			only("setcc-branch", "cmp rdi, rsi", "setl al", "movzx rdi, al", "cmp rdi, 1", "je .l0", ".l0:"));
+
+		// The bool is used for something else than the branch
+		Assert.assertEquals(List.of("setl al", "movzx rdi, al", "store 1"),
+			only("setcc-branch", "setl al", "movzx rdi, al", "store 1"));
+	}
+
+	@Test
+	public void constBranch() {
+		// Never taken
+		Assert.assertEquals(List.of("call f_x", ".l0:"),
+			only("const-branch", "mov rdi, QWORD 1", "cmp rdi, 0", "je .l0", "call f_x", ".l0:"));
+		// Always taken
+		Assert.assertEquals(List.of("jmp .l0", "call f_x", ".l0:"),
+			only("const-branch", "mov rdi, QWORD 0", "cmp rdi, 0", "je .l0", "call f_x", ".l0:"));
+	}
+
+	@Test
+	public void disabledRules() {
+		var lines = new String[] { "store 3", "load 3", "push rdi", "pop rsi", "call print" };
+
+		var function = Ir.parse(lines);
+		new PeepholeOptimizer(Set.of("store-load")).run(function);
+		Assert.assertEquals(List.of("store 3", "load 3", "mov rsi, rdi", "call print"), Ir.lines(function));
+
+		function = Ir.parse(lines);
+		new PeepholeOptimizer(Set.copyOf(PeepholeOptimizer.ruleNames())).run(function);
+		Assert.assertEquals(List.of(lines), Ir.lines(function));
+
+		// What `--disable-rules` gives the pass manager
+		function = Ir.parse(lines);
+		new PassManager(1, Set.of("-regalloc", "-unreachable"), Set.of("push-pop")).run(function, SOURCE);
+		Assert.assertEquals(List.of("store 3", "push rdi", "pop rsi", "call print"), Ir.lines(function));
+	}
+}
@@ -0,0 +1,91 @@
+package com.scopelang.ir;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.junit.*;
+
+public class RegisterAllocatorTest {
+	private static IrFunction allocate(String... lines) {
+		var function = Ir.parse(lines);
+		new RegisterAllocator().run(function);
+		return function;
+	}
+
+	private static String emit(IrFunction function) {
+		var text = new StringWriter();
+		var out = new PrintWriter(text);
+		FasmEmitter.emit(function, out);
+		out.flush();
+		return text.toString();
+	}
+
+	@Test
+	public void liveAcrossCalls() {
+		var function = allocate(
+			"mov rdi, QWORD 1", "store 0",
+			"mov rdi, QWORD 2", "store 1",
+			"call f_x",
+			"load 0", "push rdi", "load 1", "pop rsi", "add rdi, rsi",
+			"return", "ret");
+
+		// Only registers that every function saves before using them
+		Assert.assertEquals(2, function.registers.size());
+		for (var register : function.registers.values()) {
+			Assert.assertTrue(register, List.of(RegisterAllocator.REGISTERS).contains(register));
+		}
+		Assert.assertNotEquals(function.registers.get(0), function.registers.get(1));
+
+		// And this one saves them for its callers
+		Assert.assertEquals(List.of("rbx", "r12"), function.savedRegisters);
+		var text = emit(function);
+		Assert.assertTrue(text, text.startsWith("\tfstart 0\n\tpush rbx, r12\n\tmov rdi, QWORD 1\n\tmov rbx, rdi\n"));
+		Assert.assertTrue(text, text.endsWith("\tpop r12, rbx\n\tfreturn\n\tret\n"));
+	}
+
+	@Test
+	public void sharedWhenNotLiveAtTheSameTime() {
+		var function = allocate("store 0", "load 0", "call f_x", "store 1", "load 1", "return", "ret");
+
+		Assert.assertEquals("rbx", function.registers.get(0));
+		Assert.assertEquals("rbx", function.registers.get(1));
+		Assert.assertEquals(List.of("rbx"), function.savedRegisters);
+	}
+
+	@Test
+	public void keptThroughLoops() {
+		// Slot 0 is last used in the loop, but the next iteration needs it again
+		var function = allocate(
+			"store 0",
+			".l0:", "load 0", "call f_x", "store 1", "load 1", "cmp rdi, 0", "jne .l0",
+			"store 2", "load 2", "return", "ret");
+
+		Assert.assertNotEquals(function.registers.get(0), function.registers.get(1));
+		// After the loop it is free again
+		Assert.assertEquals(function.registers.get(0), function.registers.get(2));
+	}
+
+	@Test
+	public void coldestStaysInTheVlist() {
+		var lines = new String[] {
+			"store 0", "store 1", "store 2", "store 3", "store 4", "store 5",
+			".l0:", "load 1", "load 2", "load 3", "load 4", "load 5", "jmp .l0",
+			"load 0", "return", "ret" };
+		var function = allocate(lines);
+
+		Assert.assertNull(function.registers.get(0));
+		Assert.assertEquals(5, function.registers.size());
+		Assert.assertTrue(emit(function).contains("\tvlist_get rdi, 0\n"));
+	}
+
+	@Test
+	public void assemblySavesEverything() {
+		var function = Ir.parse("store 0", "load 0", "return", "ret");
+		function.hasAssembly = true;
+		new RegisterAllocator().run(function);
+
+		Assert.assertTrue(function.registers.isEmpty());
+		Assert.assertEquals(List.of(RegisterAllocator.REGISTERS), function.savedRegisters);
+	}
+}
@@ -0,0 +1,140 @@
+package com.scopelang.metadata;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import com.scopelang.FilePair;
+import com.scopelang.TestProject;
+import com.scopelang.FilePair.RootType;
+import com.scopelang.project.CompileTask;
+import com.scopelang.project.CompileTask.Mode;
+
+public class MetadataIndexTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FilePair unit;
+	private File index;
+
+	// An imported file with a bit of everything that ends up in the metadata, inline
+	// bodies and constant values included
+	@Before
+	public void compile() throws Exception {
+		var project = new TestProject(folder.getRoot(), "import \"Other\";\n\nfunc void main() {\n\thello();\n}\n");
+		Files.writeString(new File(folder.getRoot(), "Other.scope").toPath(), "import \"Third\";\n\n"
+			+ "const int K = 3;\n\nconst str NAME = \"scope\";\n\n"
+			+ "object Point {\n\tint x = 0;\n\tdec y = 1.5;\n}\n\n"
+			+ "inline func int twice(int x) {\n\tret x * 2;\n}\n\n"
+			+ "func str describe(Point p, int n) {\n\tret \"p\";\n}\n\n"
+			+ "func void hello() {\n\tthird();\n}\n");
+		Files.writeString(new File(folder.getRoot(), "Third.scope").toPath(), "func void third() {\n}\n");
+		Assert.assertNotNull(project.messages, project.compile(0, "+inline", "+fold"));
+
+		unit = CompileTask.convertSourceToCompiled(new FilePair(folder.getRoot(), "Other.scope", RootType.NORMAL),
+			Mode.IMPORT);
+		index = MetadataIndex.indexFileOf(unit.toFile());
+	}
+
+	// Analyzed from the text, without an index to start with
+	private FasmAnalyzer fromText() {
+		index.delete();
+		var analyzer = new FasmAnalyzer(unit);
+		Assert.assertTrue(index.exists());
+		return analyzer;
+	}
+
+	@Test
+	public void roundTrip() {
+		var text = fromText();
+		var indexed = new FasmAnalyzer();
+		Assert.assertTrue(MetadataIndex.read(indexed, unit));
+
+		Assert.assertEquals(text.type, indexed.type);
+		Assert.assertEquals(text.hash, indexed.hash);
+		Assert.assertEquals(text.source, indexed.source);
+		Assert.assertEquals(text.build, indexed.build);
+		Assert.assertEquals(text.settings, indexed.settings);
+		Assert.assertEquals(text.codeStart, indexed.codeStart);
+		Assert.assertEquals(text.codeEnd, indexed.codeEnd);
+		Assert.assertEquals(text.readStart, indexed.readStart);
+		Assert.assertEquals(text.readEnd, indexed.readEnd);
+
+		Assert.assertEquals(1, indexed.imports.size());
+		Assert.assertEquals(text.imports, indexed.imports);
+		Assert.assertEquals(text.imports.get(0).md5, indexed.imports.get(0).md5);
+		Assert.assertEquals(text.imports.get(0).library, indexed.imports.get(0).library);
+
+		Assert.assertEquals(text.functions.keySet(), indexed.functions.keySet());
+		for (var func : text.functions.entrySet()) {
+			var other = indexed.functions.get(func.getKey());
+			Assert.assertEquals(func.getValue().returnType.toString(), other.returnType.toString());
+			Assert.assertArrayEquals(func.getValue().argTypes, other.argTypes);
+			Assert.assertEquals(func.getValue().inlineBody, other.inlineBody);
+			Assert.assertArrayEquals(func.getValue().paramNames, other.paramNames);
+		}
+
+		Assert.assertEquals(text.constants, indexed.constants);
+		Assert.assertEquals(text.constantValues, indexed.constantValues);
+
+		Assert.assertEquals(text.objects.keySet(), indexed.objects.keySet());
+		for (var object : text.objects.entrySet()) {
+			var other = indexed.objects.get(object.getKey());
+			Assert.assertEquals(object.getValue().fields, other.fields);
+			Assert.assertEquals(object.getValue().fieldTypes, other.fieldTypes);
+		}
+
+		// What importers are compiled against
+		Assert.assertEquals(text.interfaceHash, new FasmAnalyzer(unit).interfaceHash);
+	}
+
+	@Test
+	public void hasEverything() {
+		var text = fromText();
+
+		Assert.assertEquals(3, text.functions.size());
+		Assert.assertEquals(2, text.constants.size());
+		Assert.assertEquals(1, text.objects.size());
+		Assert.assertEquals(1, text.functions.values().stream().filter(func -> func.inlineBody != null).count());
+		Assert.assertFalse(text.constantValues.isEmpty());
+	}
+
+	@Test
+	public void otherVersionsAreIgnored() throws Exception {
+		var text = fromText();
+		try (var file = new RandomAccessFile(index, "rw")) {
+			file.seek(4);
+			file.writeInt(MetadataIndex.VERSION - 1);
+		}
+
+		Assert.assertFalse(MetadataIndex.read(new FasmAnalyzer(), unit));
+
+		// Analyzed from the text again, which writes the current version
+		Assert.assertEquals(text.interfaceHash, new FasmAnalyzer(unit).interfaceHash);
+		Assert.assertTrue(MetadataIndex.read(new FasmAnalyzer(), unit));
+	}
+
+	@Test
+	public void staleIndexIsIgnored() throws Exception {
+		fromText();
+		Assert.assertTrue(unit.toFile().setLastModified(unit.toFile().lastModified() + 2000));
+
+		Assert.assertFalse(MetadataIndex.read(new FasmAnalyzer(), unit));
+	}
+
+	@Test
+	public void corruptIndexIsIgnored() throws Exception {
+		fromText();
+		try (var file = new RandomAccessFile(index, "rw")) {
+			file.setLength(file.length() / 2);
+		}
+
+		var analyzer = new FasmAnalyzer();
+		Assert.assertFalse(MetadataIndex.read(analyzer, unit));
+		Assert.assertTrue(analyzer.functions.isEmpty());
+		Assert.assertTrue(analyzer.imports.isEmpty());
+	}
+}
@@ -0,0 +1,151 @@
+package com.scopelang.project;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import com.scopelang.FilePair;
+import com.scopelang.TestProject;
+import com.scopelang.FilePair.RootType;
+import com.scopelang.metadata.FasmAnalyzer;
+import com.scopelang.project.CompileTask.Mode;
+
+public class BuildCacheTest {
+	private static final long DAY = 24 * 60 * 60 * 1000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private BuildCache cache() throws Exception {
+		var project = new TestProject(folder.newFolder(), "");
+		var cache = new BuildCache(project.xml, project.root);
+		cache.storeDir = folder.newFolder("store");
+		return cache;
+	}
+
+	// An artifact in the store with a size and the time it was last used
+	private File artifact(BuildCache cache, String key, String name, int size, long used) throws Exception {
+		var file = new File(cache.storeDir, key + File.separator + name);
+		Files.createDirectories(file.getParentFile().toPath());
+		Files.write(file.toPath(), new byte[size]);
+		Assert.assertTrue(file.setLastModified(used));
+		return file;
+	}
+
+	@Test
+	public void keys() throws Exception {
+		var cache = cache();
+		var file = new FilePair(folder.getRoot(), "Main.scope", RootType.NORMAL);
+		var key = cache.keyOf(file, Mode.IMPORT, "md5");
+
+		Assert.assertEquals(key, cache.keyOf(file, Mode.IMPORT, "md5"));
+		Assert.assertNotEquals(key, cache.keyOf(file, Mode.IMPORT, "other md5"));
+		Assert.assertNotEquals(key, cache.keyOf(file, Mode.MAIN, "md5"));
+		Assert.assertNotEquals(key, cache.keyOf(new FilePair(folder.getRoot(), "Other.scope", RootType.NORMAL),
+			Mode.IMPORT, "md5"));
+		Assert.assertNotEquals(key, cache.keyOf(new FilePair(folder.getRoot(), "Main.scope", RootType.LIBRARY),
+			Mode.IMPORT, "md5"));
+
+		// Everything that changes the generated code
+		cache.optLevel = 1;
+		var o1 = cache.keyOf(file, Mode.IMPORT, "md5");
+		Assert.assertNotEquals(key, o1);
+		cache.passToggles.add("-inline");
+		var toggled = cache.keyOf(file, Mode.IMPORT, "md5");
+		Assert.assertNotEquals(o1, toggled);
+		cache.disabledRules.add("push-pop");
+		var disabled = cache.keyOf(file, Mode.IMPORT, "md5");
+		Assert.assertNotEquals(toggled, disabled);
+		cache.emitDiff = true;
+		Assert.assertNotEquals(disabled, cache.keyOf(file, Mode.IMPORT, "md5"));
+	}
+
+	@Test
+	public void librariesIgnoreProjectSettings() throws Exception {
+		var cache = cache();
+
+		Assert.assertEquals("O0,-", cache.settingsOf(new FilePair(folder.getRoot(), "Lib.scope", RootType.LIBRARY)));
+		Assert.assertEquals("O0," + cache.settingsHash,
+			cache.settingsOf(new FilePair(folder.getRoot(), "Main.scope", RootType.NORMAL)));
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		var project = new TestProject(folder.newFolder(), "func void main() {\n\tprint(\"hi\\n\");\n}\n");
+		Assert.assertNotNull(project.messages, project.compile(0));
+		var unit = CompileTask.convertSourceToCompiled(new FilePair(project.root, "Main.scope", RootType.NORMAL), Mode.MAIN);
+		var analyzer = FasmAnalyzer.of(unit);
+
+		var cache = cache();
+		Assert.assertNull(cache.lookup("key"));
+		cache.publish("key", analyzer, unit.toFile());
+
+		var any = cache.lookup("key");
+		var exact = cache.lookup("key", BuildCache.depsHashOf(analyzer));
+		Assert.assertNotNull(any);
+		Assert.assertNotNull(exact);
+		Assert.assertNull(cache.lookup("key", "other imports"));
+
+		var target = new FilePair(folder.newFolder(), "Restored.scopeunit", RootType.CACHE);
+		cache.restore(exact, target);
+		Assert.assertArrayEquals(Files.readAllBytes(unit.toFile().toPath()), Files.readAllBytes(target.toFile().toPath()));
+	}
+
+	@Test
+	public void trimsLeastRecentlyUsed() throws Exception {
+		var cache = cache();
+		long now = System.currentTimeMillis();
+		var oldest = artifact(cache, "a", "x.scopelib", 100, now - 3 * DAY);
+		var older = artifact(cache, "b", "x.scopelib", 100, now - 2 * DAY);
+		var newer = artifact(cache, "b", "y.scopelib", 100, now - DAY);
+		var newest = artifact(cache, "c", "x.scopelib", 100, now);
+
+		cache.trimStore(250, 30 * DAY);
+
+		Assert.assertFalse(oldest.exists());
+		Assert.assertFalse(older.exists());
+		Assert.assertTrue(newer.exists());
+		Assert.assertTrue(newest.exists());
+		// Nothing is left in it
+		Assert.assertFalse(new File(cache.storeDir, "a").exists());
+	}
+
+	@Test
+	public void trimsOldArtifacts() throws Exception {
+		var cache = cache();
+		long now = System.currentTimeMillis();
+		var old = artifact(cache, "a", "x.scopelib", 10, now - 40 * DAY);
+		var recent = artifact(cache, "a", "y.scopelib", 10, now - 10 * DAY);
+
+		cache.trimStore(Long.MAX_VALUE, 30 * DAY);
+
+		Assert.assertFalse(old.exists());
+		Assert.assertTrue(recent.exists());
+	}
+
+	@Test
+	public void restoringCountsAsUse() throws Exception {
+		var cache = cache();
+		long now = System.currentTimeMillis();
+		var restored = artifact(cache, "a", "x.scopelib", 100, now - 3 * DAY);
+		var other = artifact(cache, "b", "x.scopelib", 100, now - DAY);
+
+		cache.restore(cache.lookup("a", "x"), new FilePair(folder.newFolder(), "Main.scopelib", RootType.CACHE));
+		cache.trimStore(150, 30 * DAY);
+
+		Assert.assertTrue(restored.exists());
+		Assert.assertFalse(other.exists());
+	}
+
+	@Test
+	public void onlyTrimmedAfterPublishing() throws Exception {
+		var cache = cache();
+		var old = artifact(cache, "a", "x.scopelib", 10, 0);
+
+		cache.trimStore();
+
+		Assert.assertTrue(old.exists());
+	}
+}